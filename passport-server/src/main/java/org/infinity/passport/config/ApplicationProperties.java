@@ -26,6 +26,9 @@ public class ApplicationProperties {
     private final ElapsedTimeLogging elapsedTimeLogging = new ElapsedTimeLogging();
     private final Redis              redis              = new Redis();
     private final Ribbon             ribbon             = new Ribbon();
+    private final Oauth2             oauth2             = new Oauth2();
+    private final PasswordHash       passwordHash       = new PasswordHash();
+    private final UserImport         userImport         = new UserImport();
 
     @Data
     public static class Http {
@@ -91,4 +94,262 @@ public class ApplicationProperties {
     public static class Ribbon {
         private String[] displayOnActiveProfiles;
     }
+
+    @Data
+    public static class PasswordHash {
+        /**
+         * Log2 of the BCrypt rounds of new hashes, the hashes with another cost are rehashed on the next login
+         */
+        private       int      bcryptStrength = 10;
+        /**
+         * Whether to rehash the password on successful login if it was hashed by another algorithm or cost
+         */
+        private       boolean  upgradeOnLogin = true;
+        private final Executor executor       = new Executor();
+
+        @Data
+        public static class Executor {
+            /**
+             * Number of threads hashing passwords, 0 means the number of available processors
+             */
+            private int  poolSize          = 0;
+            /**
+             * Maximum number of hashes waiting for a thread, more are rejected immediately. 0 means twice the pool
+             * size, but no more than half of the server worker threads minus the pool size
+             */
+            private int  queueCapacity     = 0;
+            /**
+             * Maximum time a request waits for its hash before it is rejected, a hash already running is not stopped
+             */
+            private long waitTimeoutMillis = 500L;
+        }
+    }
+
+    @Data
+    public static class UserImport {
+        /**
+         * Number of rows checked, hashed and written together
+         */
+        private int  batchSize     = 1_000;
+        /**
+         * Parallelism of the password hashing of a batch, 0 means the number of available processors
+         */
+        private int  parallelism   = 0;
+        /**
+         * Time to stream the import response, it replaces the default async request timeout of the import
+         */
+        private long timeoutMillis = 30 * 60 * 1_000L;
+    }
+
+    @Data
+    public static class Oauth2 {
+        /**
+         * Access token format, "mongo" persists tokens in MongoDB, "jwt" issues self-contained signed tokens
+         */
+        private       String             tokenFormat                      = "mongo";
+        /**
+         * Whether to store OAuth2Authentication as a compact binary field, disable it until all nodes can read it
+         */
+        private       boolean            binaryAuthentication             = true;
+        /**
+         * Time before an unredeemed authorization code is deleted
+         */
+        private       long               authorizationCodeValiditySeconds = 600L;
+        /**
+         * Token store of the mongo token format, "mongo" persists tokens in MongoDB, "tiered" keeps a compact local
+         * copy in front of MongoDB, "local" keeps tokens in process only for single-node and test deployments
+         */
+        private       String             tokenStore                       = "mongo";
+        private final TokenCache         tokenCache                       = new TokenCache();
+        private final TokenRevocation    tokenRevocation                  = new TokenRevocation();
+        private final Jwt                jwt                              = new Jwt();
+        private final ClientDetailsCache clientDetailsCache               = new ClientDetailsCache();
+        private final UserDetailsCache   userDetailsCache                 = new UserDetailsCache();
+        private final ClientSecretCache  clientSecretCache                = new ClientSecretCache();
+        private final ApprovalCache      approvalCache                    = new ApprovalCache();
+        private final LastAccess         lastAccess                       = new LastAccess();
+        private final LocalTokenStore    localTokenStore                  = new LocalTokenStore();
+        private final Sweeper            sweeper                          = new Sweeper();
+
+        @Data
+        public static class TokenCache {
+            /**
+             * Whether to cache access tokens in process
+             */
+            private boolean enabled                 = true;
+            /**
+             * Maximum number of cached access tokens
+             */
+            private long    maximumSize             = 100_000L;
+            /**
+             * Upper bound of the cached time, token expiration is honoured as well
+             */
+            private long    expireAfterWriteSeconds = 300L;
+        }
+
+        @Data
+        public static class TokenRevocation {
+            /**
+             * Whether to broadcast access token revocations to other nodes
+             */
+            private boolean enabled                   = true;
+            /**
+             * Maximum size in bytes of the capped revocation collection
+             */
+            private long    cappedSize                = 8 * 1024 * 1024L;
+            /**
+             * Maximum number of documents of the capped revocation collection
+             */
+            private long    cappedMaxDocuments        = 100_000L;
+            /**
+             * Interval to check whether the tailable cursor has failed and to resubscribe
+             */
+            private long    resubscribeIntervalMillis = 5000L;
+        }
+
+        @Data
+        public static class Jwt {
+            /**
+             * Symmetric key used to sign and verify the tokens, it is required in jwt token format
+             */
+            private String signingKey;
+            /**
+             * Time to remember a revoked token which never expires, other tokens are remembered until they expire
+             */
+            private long   revocationRetentionSeconds = 7 * 24 * 3600L;
+            /**
+             * Interval to forget the revoked tokens which have expired
+             */
+            private long   purgeIntervalMillis        = 60_000L;
+        }
+
+        @Data
+        public static class ClientDetailsCache {
+            /**
+             * Whether to cache client details in process
+             */
+            private boolean enabled                    = true;
+            /**
+             * Maximum number of cached client details
+             */
+            private long    maximumSize                = 1_000L;
+            /**
+             * Upper bound of the cached time
+             */
+            private long    expireAfterWriteSeconds    = 300L;
+            /**
+             * Interval to check the versions of the cached client details against the database
+             */
+            private long    versionCheckIntervalMillis = 5_000L;
+        }
+
+        @Data
+        public static class UserDetailsCache {
+            /**
+             * Whether to cache loaded user details with their authorities in process
+             */
+            private boolean enabled                 = true;
+            /**
+             * Maximum number of cached user details
+             */
+            private long    maximumSize             = 10_000L;
+            /**
+             * Upper bound of the cached time, changes made on other nodes are visible after it
+             */
+            private long    expireAfterWriteSeconds = 30L;
+        }
+
+        @Data
+        public static class ClientSecretCache {
+            /**
+             * Whether to cache successful client secret verifications in process
+             */
+            private boolean enabled                 = true;
+            /**
+             * Maximum number of cached verifications
+             */
+            private long    maximumSize             = 10_000L;
+            /**
+             * Time to trust a verification before running the password encoder again
+             */
+            private long    expireAfterWriteSeconds = 60L;
+        }
+
+        @Data
+        public static class ApprovalCache {
+            /**
+             * Whether to cache approvals per user and client in process
+             */
+            private boolean enabled                 = true;
+            /**
+             * Maximum number of cached (user, client) approval sets
+             */
+            private long    maximumSize             = 100_000L;
+            /**
+             * Upper bound of the cached time, approval expiration is honoured as well
+             */
+            private long    expireAfterWriteSeconds = 300L;
+        }
+
+        @Data
+        public static class LastAccess {
+            /**
+             * Whether to record the last access time of access tokens
+             */
+            private boolean enabled             = true;
+            /**
+             * Interval to flush the buffered last access times to the database
+             */
+            private long    flushIntervalMillis = 10_000L;
+            /**
+             * Maximum number of updates per bulk write
+             */
+            private int     batchSize           = 1_000;
+            /**
+             * Maximum number of buffered tokens, the updates of other tokens are dropped until the next flush
+             */
+            private int     maximumSize         = 100_000;
+        }
+
+        @Data
+        public static class LocalTokenStore {
+            /**
+             * Interval to purge the expired tokens kept in process by the tiered and local token stores
+             */
+            private long purgeIntervalMillis     = 60_000L;
+            /**
+             * Maximum number of access tokens kept in process by the tiered token store
+             */
+            private long maximumSize             = 1_000_000L;
+            /**
+             * Time to keep an access token in process by the tiered token store, well below the token validity
+             * to bound the memory held by the idle tokens
+             */
+            private long expireAfterWriteSeconds = 600L;
+        }
+
+        @Data
+        public static class Sweeper {
+            /**
+             * Whether to delete the expired tokens, codes and approvals periodically besides the TTL indexes
+             */
+            private boolean enabled           = true;
+            /**
+             * Interval between two runs, it is also the time a node holds the lock and should be longer than a run
+             */
+            private long    intervalMillis    = 60_000L;
+            /**
+             * Maximum number of documents deleted per batch
+             */
+            private int     batchSize         = 1_000;
+            /**
+             * Pause between two batches to limit the load on the database
+             */
+            private long    batchPauseMillis  = 50L;
+            /**
+             * Maximum duration of a run per collection, the rest is deleted by the next run
+             */
+            private long    maxDurationMillis = 10_000L;
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package org.infinity.passport.config;
+
+import org.infinity.passport.config.oauth2.BatchTokenStore;
+import org.infinity.passport.config.oauth2.RevocableJwtTokenStore;
+import org.infinity.passport.config.oauth2.SecurityUserAuthenticationConverter;
+import org.infinity.passport.config.oauth2.TokenRevocationBroadcaster;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+import org.springframework.util.Assert;
+
+/**
+ * Self-contained signed access tokens which embed user name, user ID, authorities, client ID and expiry,
+ * so that the resource server validates a token without any token store lookup.
+ * It is enabled by setting application.oauth2.token-format to jwt, or else the MongoDB token store is used.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "application.oauth2", name = "token-format", havingValue = "jwt")
+public class JwtTokenStoreConfiguration {
+
+    private final ApplicationProperties applicationProperties;
+
+    public JwtTokenStoreConfiguration(ApplicationProperties applicationProperties) {
+        this.applicationProperties = applicationProperties;
+    }
+
+    @Bean
+    public JwtAccessTokenConverter jwtAccessTokenConverter() {
+        String signingKey = applicationProperties.getOauth2().getJwt().getSigningKey();
+        Assert.hasText(signingKey, "application.oauth2.jwt.signing-key must be specified in jwt token format!");
+        DefaultAccessTokenConverter accessTokenConverter = new DefaultAccessTokenConverter();
+        accessTokenConverter.setUserTokenConverter(new SecurityUserAuthenticationConverter());
+        JwtAccessTokenConverter jwtAccessTokenConverter = new JwtAccessTokenConverter();
+        jwtAccessTokenConverter.setAccessTokenConverter(accessTokenConverter);
+        jwtAccessTokenConverter.setSigningKey(signingKey);
+        return jwtAccessTokenConverter;
+    }
+
+    @Bean
+    public BatchTokenStore tokenStore(MongoTemplate mongoTemplate, TokenRevocationBroadcaster tokenRevocationBroadcaster) {
+        return new RevocableJwtTokenStore(jwtAccessTokenConverter(), mongoTemplate, tokenRevocationBroadcaster,
+                applicationProperties);
+    }
+}
@@ -3,10 +3,7 @@ package org.infinity.passport.config;
 import com.github.cloudyrock.spring.v5.EnableMongock;
 import io.changock.runner.core.ChangockBase;
 import lombok.extern.slf4j.Slf4j;
-import org.infinity.passport.config.oauth2.OAuth2AccessTokenReadConverter;
-import org.infinity.passport.config.oauth2.OAuth2AuthenticationReadConverter;
-import org.infinity.passport.config.oauth2.OAuth2GrantedAuthorityTokenReadConverter;
-import org.infinity.passport.config.oauth2.OAuth2RefreshTokenReadConverter;
+import org.infinity.passport.config.oauth2.*;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -23,6 +20,8 @@ import org.springframework.data.mongodb.core.mapping.BasicMongoPersistentEntity;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
 import org.springframework.data.mongodb.core.mapping.event.ValidatingMongoEventListener;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 
 import java.util.ArrayList;
@@ -41,20 +40,24 @@ public class MongoConfiguration {
     private final MongoMappingContext       mongoMappingContext;
     private final MongoDatabaseFactory      mongoDatabaseFactory;
     private final LocalValidatorFactoryBean validator;
+    private final ApplicationProperties     applicationProperties;
 
     /**
      * Use @Lazy to fix dependencies problems
      *
      * @param mongoMappingContext  mongo mapping context
      * @param mongoDatabaseFactory mongo db factory
-     * @param validator            bean validator
+     * @param validator             bean validator
+     * @param applicationProperties application properties
      */
     public MongoConfiguration(@Lazy MongoMappingContext mongoMappingContext,
                               MongoDatabaseFactory mongoDatabaseFactory,
-                              LocalValidatorFactoryBean validator) {
+                              LocalValidatorFactoryBean validator,
+                              ApplicationProperties applicationProperties) {
         this.mongoMappingContext = mongoMappingContext;
         this.mongoDatabaseFactory = mongoDatabaseFactory;
         this.validator = validator;
+        this.applicationProperties = applicationProperties;
     }
 
     @Bean
@@ -69,6 +72,11 @@ public class MongoConfiguration {
         converters.add(new OAuth2RefreshTokenReadConverter());
         converters.add(new OAuth2AuthenticationReadConverter());
         converters.add(new OAuth2GrantedAuthorityTokenReadConverter());
+        // Both nested document and compact binary authentications can always be read
+        converters.add(new OAuth2AuthenticationBinaryReadConverter());
+        if (applicationProperties.getOauth2().isBinaryAuthentication()) {
+            converters.add(new OAuth2AuthenticationWriteConverter());
+        }
         return new MongoCustomConversions(converters);
     }
 
@@ -87,6 +95,16 @@ public class MongoConfiguration {
         return new MongoTemplate(mongoDatabaseFactory, mappingMongoConverter());
     }
 
+    /**
+     * Container used to subscribe to tailable cursors, it will be started and stopped along with the application context
+     *
+     * @return message listener container
+     */
+    @Bean
+    public MessageListenerContainer messageListenerContainer() {
+        return new DefaultMessageListenerContainer(mongoTemplate());
+    }
+
     @EventListener(ApplicationReadyEvent.class)
     public void initIndicesAfterStartup() {
         if (mongoMappingContext != null) {
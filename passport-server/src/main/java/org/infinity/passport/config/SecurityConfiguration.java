@@ -1,7 +1,11 @@
 package org.infinity.passport.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.infinity.passport.config.oauth2.BoundedPasswordEncoder;
+import org.infinity.passport.config.oauth2.CostAwareBCryptPasswordEncoder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -11,8 +15,8 @@ import org.springframework.security.config.annotation.method.configuration.Enabl
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 /**
@@ -25,12 +29,21 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 @EnableGlobalMethodSecurity(prePostEnabled = true, securedEnabled = true)
 public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
 
-    private final UserDetailsService userDetailsService;
+    private final UserDetailsService    userDetailsService;
+    private final ApplicationProperties applicationProperties;
+    private final ServerProperties      serverProperties;
+    private final MeterRegistry         meterRegistry;
 
 
     public SecurityConfiguration(@Autowired
-                                 @Qualifier("springSecurityUserDetailsServiceImpl") UserDetailsService userDetailsService) {
+                                 @Qualifier("springSecurityUserDetailsServiceImpl") UserDetailsService userDetailsService,
+                                 ApplicationProperties applicationProperties,
+                                 ServerProperties serverProperties,
+                                 MeterRegistry meterRegistry) {
         this.userDetailsService = userDetailsService;
+        this.applicationProperties = applicationProperties;
+        this.serverProperties = serverProperties;
+        this.meterRegistry = meterRegistry;
     }
 
     @Bean
@@ -39,14 +52,36 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
         return super.authenticationManagerBean();
     }
 
-    @Bean
+    /**
+     * Versioned password encoder, every hash records the algorithm ID and the BCrypt cost.
+     * The hashing runs on a bounded executor, so that a login storm can not starve the request threads.
+     */
+    @Bean(destroyMethod = "shutdown")
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        PasswordEncoder versionedPasswordEncoder = CostAwareBCryptPasswordEncoder
+                .createDelegatingPasswordEncoder(applicationProperties.getPasswordHash().getBcryptStrength());
+        return new BoundedPasswordEncoder(versionedPasswordEncoder, applicationProperties, getServerWorkerThreads(),
+                meterRegistry);
+    }
+
+    /**
+     * Number of undertow worker threads, which defaults to 8 per IO thread and one IO thread per processor
+     */
+    private int getServerWorkerThreads() {
+        ServerProperties.Undertow.Threads threads = serverProperties.getUndertow().getThreads();
+        if (threads.getWorker() != null) {
+            return threads.getWorker();
+        }
+        int ioThreads = threads.getIo() != null ? threads.getIo() : Math.max(Runtime.getRuntime().availableProcessors(), 2);
+        return ioThreads * 8;
     }
 
     @Override
     protected void configure(AuthenticationManagerBuilder auth) throws Exception {
-        auth.userDetailsService(userDetailsService).passwordEncoder(passwordEncoder());
+        // Rehash the password with the current algorithm and cost on successful login
+        auth.userDetailsService(userDetailsService).passwordEncoder(passwordEncoder())
+                .userDetailsPasswordManager(applicationProperties.getPasswordHash().isUpgradeOnLogin() ?
+                        (UserDetailsPasswordService) userDetailsService : null);
     }
 
     @Override
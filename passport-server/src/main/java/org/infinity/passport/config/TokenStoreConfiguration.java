@@ -0,0 +1,73 @@
+package org.infinity.passport.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.infinity.passport.config.oauth2.*;
+import org.infinity.passport.repository.OAuth2AccessTokenRepository;
+import org.infinity.passport.repository.OAuth2RefreshTokenRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Token store backends of the mongo token format, selected by application.oauth2.token-store:
+ * - mongo persists the tokens in MongoDB, it is the default
+ * - tiered keeps a compact copy of the access tokens in process in front of MongoDB
+ * - local keeps the tokens in process only, for single-node and test deployments, the token management APIs are disabled
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "application.oauth2", name = "token-format", havingValue = "mongo", matchIfMissing = true)
+public class TokenStoreConfiguration {
+
+    private final OAuth2AccessTokenRepository  oAuth2AccessTokenRepository;
+    private final OAuth2RefreshTokenRepository oAuth2RefreshTokenRepository;
+    private final AccessTokenNearCache         accessTokenNearCache;
+    private final AccessTokenLastAccessBuffer  accessTokenLastAccessBuffer;
+    private final TokenRevocationBroadcaster   tokenRevocationBroadcaster;
+    private final MongoTemplate                mongoTemplate;
+    private final MeterRegistry                meterRegistry;
+    private final ApplicationProperties        applicationProperties;
+
+    public TokenStoreConfiguration(OAuth2AccessTokenRepository oAuth2AccessTokenRepository,
+                                   OAuth2RefreshTokenRepository oAuth2RefreshTokenRepository,
+                                   AccessTokenNearCache accessTokenNearCache,
+                                   AccessTokenLastAccessBuffer accessTokenLastAccessBuffer,
+                                   TokenRevocationBroadcaster tokenRevocationBroadcaster,
+                                   MongoTemplate mongoTemplate,
+                                   MeterRegistry meterRegistry,
+                                   ApplicationProperties applicationProperties) {
+        this.oAuth2AccessTokenRepository = oAuth2AccessTokenRepository;
+        this.oAuth2RefreshTokenRepository = oAuth2RefreshTokenRepository;
+        this.accessTokenNearCache = accessTokenNearCache;
+        this.accessTokenLastAccessBuffer = accessTokenLastAccessBuffer;
+        this.tokenRevocationBroadcaster = tokenRevocationBroadcaster;
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+        this.applicationProperties = applicationProperties;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "application.oauth2", name = "token-store", havingValue = "mongo", matchIfMissing = true)
+    public MongoTokenStore tokenStore() {
+        return createMongoTokenStore();
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "application.oauth2", name = "token-store", havingValue = "tiered")
+    public TieredTokenStore tieredTokenStore() {
+        ApplicationProperties.Oauth2.LocalTokenStore localTokenStore = applicationProperties.getOauth2().getLocalTokenStore();
+        return new TieredTokenStore(new LocalTokenStore(localTokenStore.getMaximumSize(),
+                localTokenStore.getExpireAfterWriteSeconds(), meterRegistry), createMongoTokenStore(), accessTokenLastAccessBuffer);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "application.oauth2", name = "token-store", havingValue = "local")
+    public LocalTokenStore localTokenStore() {
+        return new LocalTokenStore(meterRegistry);
+    }
+
+    private MongoTokenStore createMongoTokenStore() {
+        return new MongoTokenStore(oAuth2AccessTokenRepository, oAuth2RefreshTokenRepository, accessTokenNearCache,
+                accessTokenLastAccessBuffer, tokenRevocationBroadcaster, mongoTemplate, meterRegistry);
+    }
+}
@@ -1,10 +1,18 @@
 package org.infinity.passport.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.infinity.passport.config.oauth2.ClientSecretVerificationCache;
 import org.infinity.passport.config.oauth2.MongoApprovalStore;
 import org.infinity.passport.config.oauth2.MongoAuthorizationCodeServices;
 import org.infinity.passport.config.oauth2.MongoClientDetailsService;
+import org.infinity.passport.config.oauth2.MongoTokenServices;
+import org.infinity.passport.config.oauth2.MongoTokenStore;
+import org.infinity.passport.config.oauth2.TemporarilyUnavailableException;
 import org.infinity.passport.domain.Authority;
+import org.infinity.passport.exception.PasswordHashingRejectedException;
 import org.infinity.passport.security.AjaxLogoutSuccessHandler;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
@@ -12,9 +20,12 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.ProviderManager;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.UserDetailsByNameServiceWrapper;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
 import org.springframework.security.oauth2.config.annotation.configurers.ClientDetailsServiceConfigurer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.AuthorizationServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableAuthorizationServer;
@@ -22,7 +33,11 @@ import org.springframework.security.oauth2.config.annotation.web.configuration.E
 import org.springframework.security.oauth2.config.annotation.web.configuration.ResourceServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerEndpointsConfigurer;
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerSecurityConfigurer;
+import org.springframework.security.oauth2.provider.error.DefaultWebResponseExceptionTranslator;
+import org.springframework.security.oauth2.provider.error.WebResponseExceptionTranslator;
 import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationProvider;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 import org.springframework.web.servlet.view.RedirectView;
@@ -32,6 +47,7 @@ import javax.annotation.Nonnull;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.util.Collections;
 import java.util.Objects;
 
 /**
@@ -134,6 +150,12 @@ public class UaaConfiguration {
 
         private final MongoAuthorizationCodeServices authorizationCodeServices;
 
+        private final ObjectProvider<JwtAccessTokenConverter> jwtAccessTokenConverter;
+
+        private final ClientSecretVerificationCache clientSecretVerificationCache;
+
+        private final MeterRegistry meterRegistry;
+
         public AuthorizationServerConfiguration(MongoClientDetailsService clientDetailsService,
                                                 AuthenticationManager authenticationManager,
                                                 TokenStore tokenStore,
@@ -141,13 +163,19 @@ public class UaaConfiguration {
                                                 @Autowired
                                                 @Qualifier("springSecurityUserDetailsServiceImpl")
                                                         UserDetailsService userDetailsService,
-                                                MongoAuthorizationCodeServices authorizationCodeServices) {
+                                                MongoAuthorizationCodeServices authorizationCodeServices,
+                                                ObjectProvider<JwtAccessTokenConverter> jwtAccessTokenConverter,
+                                                ClientSecretVerificationCache clientSecretVerificationCache,
+                                                MeterRegistry meterRegistry) {
             this.clientDetailsService = clientDetailsService;
             this.authenticationManager = authenticationManager;
             this.tokenStore = tokenStore;
             this.approvalStore = approvalStore;
             this.userDetailsService = userDetailsService;
             this.authorizationCodeServices = authorizationCodeServices;
+            this.jwtAccessTokenConverter = jwtAccessTokenConverter;
+            this.clientSecretVerificationCache = clientSecretVerificationCache;
+            this.meterRegistry = meterRegistry;
         }
 
         @Override
@@ -167,6 +195,12 @@ public class UaaConfiguration {
                     .userDetailsService(userDetailsService)
                     .authorizationCodeServices(authorizationCodeServices);
             // @formatter:on
+            // Only available in jwt token format, it also works as the token enhancer which signs the tokens
+            jwtAccessTokenConverter.ifAvailable(endpoints::accessTokenConverter);
+            if (tokenStore instanceof MongoTokenStore) {
+                endpoints.tokenServices(createMongoTokenServices((MongoTokenStore) tokenStore, endpoints));
+            }
+            endpoints.exceptionTranslator(createExceptionTranslator());
             // Use to logout
             endpoints.addInterceptor(new HandlerInterceptorAdapter() {
                 @Override
@@ -186,11 +220,45 @@ public class UaaConfiguration {
             });
         }
 
+        /**
+         * Configured the same as the default token services of the endpoints
+         */
+        private MongoTokenServices createMongoTokenServices(MongoTokenStore mongoTokenStore,
+                                                            AuthorizationServerEndpointsConfigurer endpoints) {
+            MongoTokenServices tokenServices = new MongoTokenServices(mongoTokenStore, meterRegistry);
+            tokenServices.setSupportRefreshToken(true);
+            tokenServices.setReuseRefreshToken(true);
+            tokenServices.setClientDetailsService(clientDetailsService);
+            tokenServices.setTokenEnhancer(endpoints.getTokenEnhancer());
+            // Used to reload the user when refreshing the access token
+            PreAuthenticatedAuthenticationProvider provider = new PreAuthenticatedAuthenticationProvider();
+            provider.setPreAuthenticatedUserDetailsService(new UserDetailsByNameServiceWrapper<>(userDetailsService));
+            tokenServices.setAuthenticationManager(new ProviderManager(Collections.singletonList(provider)));
+            return tokenServices;
+        }
+
+        /**
+         * Translate the rejected password hashing of the password grant to HTTP 503 instead of 500
+         */
+        private WebResponseExceptionTranslator<OAuth2Exception> createExceptionTranslator() {
+            DefaultWebResponseExceptionTranslator defaultTranslator = new DefaultWebResponseExceptionTranslator();
+            return e -> {
+                int index = ExceptionUtils.indexOfType(e, PasswordHashingRejectedException.class);
+                if (index < 0) {
+                    return defaultTranslator.translate(e);
+                }
+                Throwable rejected = ExceptionUtils.getThrowableList(e).get(index);
+                return defaultTranslator.translate(new TemporarilyUnavailableException(rejected.getMessage(), rejected));
+            };
+        }
+
         @Override
         public void configure(AuthorizationServerSecurityConfigurer oauthServer) {
             // 如果没有下面一条语句会在使用authorization code获取access token时报Full
             // authentication is required to access this resource错误
             oauthServer.allowFormAuthenticationForClients();
+            // Avoid running BCrypt on every client_credentials grant
+            oauthServer.passwordEncoder(clientSecretVerificationCache.asPasswordEncoder());
 
             // 下面语句好像没起作用
             oauthServer.tokenKeyAccess("permitAll()").checkTokenAccess("isAuthenticated()");
@@ -0,0 +1,150 @@
+package org.infinity.passport.config.oauth2;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer of the last access times of access tokens. The accesses of a token are coalesced in memory and
+ * flushed periodically with unordered bulk writes, so that reading a token does not cost a database write.
+ * The buffer is flushed on graceful shutdown as well, the accesses buffered on a crash are lost.
+ * Buffer size, dropped accesses, flush duration and the lag of the oldest flushed access are exported to the meter
+ * registry with the prefix {@link #METRIC_PREFIX}.
+ */
+@Component
+@Slf4j
+public class AccessTokenLastAccessBuffer {
+
+    public static final String METRIC_PREFIX = "oauth2.last-access";
+
+    private final MongoTemplate                 mongoTemplate;
+    private final boolean                       enabled;
+    private final int                           batchSize;
+    private final int                           maximumSize;
+    private final ConcurrentMap<String, Access> pending = new ConcurrentHashMap<>();
+    private final Counter                       droppedCounter;
+    private final Timer                         flushTimer;
+    private final Timer                         lagTimer;
+
+    public AccessTokenLastAccessBuffer(MongoTemplate mongoTemplate, ApplicationProperties applicationProperties,
+                                       MeterRegistry meterRegistry) {
+        ApplicationProperties.Oauth2.LastAccess lastAccess = applicationProperties.getOauth2().getLastAccess();
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = lastAccess.isEnabled();
+        this.batchSize = lastAccess.getBatchSize();
+        this.maximumSize = lastAccess.getMaximumSize();
+        Gauge.builder(METRIC_PREFIX + ".buffer.size", pending, Map::size)
+                .description("Number of access tokens whose last access time is waiting to be flushed")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder(METRIC_PREFIX + ".dropped")
+                .description("Number of accesses dropped because the buffer was full")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder(METRIC_PREFIX + ".flush")
+                .description("Duration of flushing the buffer")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder(METRIC_PREFIX + ".lag")
+                .description("Age of the oldest access when it is flushed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Record an access of the token, it is written to the database on the next flush.
+     *
+     * @param tokenValue access token value
+     */
+    public void touch(String tokenValue) {
+        if (!enabled) {
+            return;
+        }
+        if (pending.size() >= maximumSize && !pending.containsKey(tokenValue)) {
+            droppedCounter.increment();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        pending.merge(tokenValue, new Access(now, now), Access::merge);
+    }
+
+    /**
+     * Write the buffered last access times with bulk writes of at most batch size updates.
+     */
+    @Scheduled(fixedDelayString = "${application.oauth2.last-access.flush-interval-millis:10000}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        flushTimer.record(this::flushPending);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+
+    private void flushPending() {
+        long now = System.currentTimeMillis();
+        long oldest = now;
+        Map<String, Access> batch = new HashMap<>(Math.min(batchSize, pending.size()) * 2);
+        for (String tokenValue : pending.keySet()) {
+            Access access = pending.remove(tokenValue);
+            if (access == null) {
+                continue;
+            }
+            oldest = Math.min(oldest, access.first);
+            batch.put(tokenValue, access);
+            if (batch.size() >= batchSize) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+        lagTimer.record(now - oldest, TimeUnit.MILLISECONDS);
+    }
+
+    private void write(Map<String, Access> batch) {
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MongoOAuth2AccessToken.class);
+        // $max keeps the latest time when several nodes flush the same token, removed tokens are not upserted
+        batch.forEach((tokenValue, access) -> bulkOperations.updateOne(Query.query(Criteria.where("_id").is(tokenValue)),
+                new Update().max("lastAccessedTime", new Date(access.last))));
+        try {
+            bulkOperations.execute();
+        } catch (RuntimeException e) {
+            // Last access times are best effort bookkeeping and must not break token validation
+            log.warn("Failed to flush the last access times of {} access tokens", batch.size(), e);
+        }
+    }
+
+    private static class Access {
+        private final long first;
+        private final long last;
+
+        private Access(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        private Access merge(Access other) {
+            return new Access(Math.min(first, other.first), Math.max(last, other.last));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.infinity.passport.config.oauth2;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.infinity.passport.event.AccessTokenRevokedEvent;
+import org.springframework.beans.BeanUtils;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process cache in front of {@link MongoTokenStore} for bearer token validation.
+ * An entry is dropped when it reaches the configured bound or when the access token expires, whichever comes first.
+ * Each read gets its own copy of the token and its authentication, because the requests modify them, e.g.
+ * OAuth2AuthenticationManager sets the details of the authentication.
+ * A token loaded before its revocation is not cached if the revocation is received while it is being loaded.
+ * Hit, miss and eviction metrics are exported to the meter registry under the name {@link #CACHE_NAME}.
+ */
+@Component
+public class AccessTokenNearCache {
+
+    public static final String CACHE_NAME = "oauth2.access-token";
+
+    private final boolean                               enabled;
+    private final Cache<String, MongoOAuth2AccessToken> cache;
+    private final AtomicLong                            evictions = new AtomicLong();
+
+    public AccessTokenNearCache(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        ApplicationProperties.Oauth2.TokenCache tokenCache = applicationProperties.getOauth2().getTokenCache();
+        this.enabled = tokenCache.isEnabled();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(tokenCache.getMaximumSize())
+                .expireAfterWrite(tokenCache.getExpireAfterWriteSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Get the access token from cache, or load it with the loader and cache it if it has not expired yet.
+     *
+     * @param tokenValue access token value
+     * @param loader     loader used on cache miss
+     * @return access token
+     */
+    public Optional<MongoOAuth2AccessToken> get(String tokenValue,
+                                                Function<String, Optional<MongoOAuth2AccessToken>> loader) {
+        if (!enabled) {
+            return loader.apply(tokenValue);
+        }
+        MongoOAuth2AccessToken token = cache.getIfPresent(tokenValue);
+        if (token != null) {
+            if (!isExpired(token)) {
+                return Optional.of(copy(token));
+            }
+            cache.invalidate(tokenValue);
+        }
+        long evictionsBeforeLoad = evictions.get();
+        Optional<MongoOAuth2AccessToken> loaded = loader.apply(tokenValue);
+        loaded.ifPresent(this::put);
+        if (evictions.get() != evictionsBeforeLoad) {
+            // An eviction has started during the load, either it removes the entry or it is removed here
+            cache.invalidate(tokenValue);
+        }
+        return loaded;
+    }
+
+    /**
+     * Get the access tokens from cache, and load all the missed ones with a single loader invocation.
+     *
+     * @param tokenValues access token values
+     * @param loader      loader used on cache misses
+     * @return unexpired access tokens keyed by the access token value
+     */
+    public Map<String, MongoOAuth2AccessToken> getAll(Collection<String> tokenValues,
+                                                      Function<Collection<String>, Iterable<MongoOAuth2AccessToken>> loader) {
+        Map<String, MongoOAuth2AccessToken> tokens = new HashMap<>(tokenValues.size());
+        Set<String> missedTokenValues = new HashSet<>();
+        for (String tokenValue : tokenValues) {
+            MongoOAuth2AccessToken token = enabled ? cache.getIfPresent(tokenValue) : null;
+            if (token != null && !isExpired(token)) {
+                tokens.put(tokenValue, copy(token));
+            } else {
+                missedTokenValues.add(tokenValue);
+            }
+        }
+        if (!missedTokenValues.isEmpty()) {
+            long evictionsBeforeLoad = evictions.get();
+            for (MongoOAuth2AccessToken token : loader.apply(missedTokenValues)) {
+                if (!isExpired(token)) {
+                    tokens.put(token.getId(), token);
+                    put(token);
+                }
+            }
+            if (evictions.get() != evictionsBeforeLoad) {
+                cache.invalidateAll(missedTokenValues);
+            }
+        }
+        return tokens;
+    }
+
+    public void put(MongoOAuth2AccessToken token) {
+        if (enabled && !isExpired(token)) {
+            cache.put(token.getId(), copy(token));
+        }
+    }
+
+    public void evict(String tokenValue) {
+        evictions.incrementAndGet();
+        cache.invalidate(tokenValue);
+    }
+
+    @EventListener
+    public void accessTokenRevokedEvent(AccessTokenRevokedEvent event) {
+        evict(event.getTokenValue());
+    }
+
+    private MongoOAuth2AccessToken copy(MongoOAuth2AccessToken token) {
+        MongoOAuth2AccessToken copy = new MongoOAuth2AccessToken();
+        BeanUtils.copyProperties(token, copy);
+        copy.setOAuth2AccessToken(new DefaultOAuth2AccessToken(token.getOAuth2AccessToken()));
+        OAuth2Authentication authentication = token.getAuthentication();
+        if (authentication != null) {
+            OAuth2Authentication authenticationCopy = new OAuth2Authentication(authentication.getOAuth2Request(),
+                    authentication.getUserAuthentication());
+            authenticationCopy.setDetails(authentication.getDetails());
+            copy.setAuthentication(authenticationCopy);
+        }
+        return copy;
+    }
+
+    private boolean isExpired(MongoOAuth2AccessToken token) {
+        return token.getExpiration() != null && !token.getExpiration().isAfter(Instant.now());
+    }
+}
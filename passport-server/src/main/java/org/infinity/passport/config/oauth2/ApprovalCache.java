@@ -0,0 +1,128 @@
+package org.infinity.passport.config.oauth2;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.event.ApprovalChangedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.oauth2.provider.approval.Approval;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Per (user, client) in-process cache of the approvals used by {@link MongoApprovalStore#getApprovals}, so that a user
+ * who has already approved a client is redirected on /oauth/authorize without a database round trip.
+ * An entry is dropped when it reaches the configured bound or when the earliest approval in it expires, whichever comes
+ * first, so that an expired approval always leads to the consent page again.
+ * A change of the approvals evicts the entry on this node and is broadcast to the other nodes by
+ * {@link TokenRevocationBroadcaster}, approvals loaded while they are being changed are not cached.
+ * Hit, miss and eviction metrics are exported to the meter registry under the name {@link #CACHE_NAME}.
+ */
+@Component
+public class ApprovalCache {
+
+    public static final String CACHE_NAME = "oauth2.approval";
+
+    private final TokenRevocationBroadcaster tokenRevocationBroadcaster;
+    private final boolean                    enabled;
+    private final Cache<List<String>, Entry> cache;
+    private final AtomicLong                 evictions = new AtomicLong();
+
+    public ApprovalCache(TokenRevocationBroadcaster tokenRevocationBroadcaster,
+                         ApplicationProperties applicationProperties,
+                         MeterRegistry meterRegistry) {
+        ApplicationProperties.Oauth2.ApprovalCache approvalCache = applicationProperties.getOauth2().getApprovalCache();
+        this.tokenRevocationBroadcaster = tokenRevocationBroadcaster;
+        this.enabled = approvalCache.isEnabled();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(approvalCache.getMaximumSize())
+                .expireAfterWrite(approvalCache.getExpireAfterWriteSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Get the approvals from cache, or load them with the loader and cache them.
+     *
+     * @param userId   user ID
+     * @param clientId client ID
+     * @param loader   loader used on cache miss
+     * @return approvals
+     */
+    public Collection<Approval> get(String userId, String clientId, Supplier<Collection<Approval>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        List<String> key = Arrays.asList(userId, clientId);
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null) {
+            if (entry.validUntil > System.currentTimeMillis()) {
+                return new ArrayList<>(entry.approvals);
+            }
+            cache.invalidate(key);
+        }
+        long evictionsBeforeLoad = evictions.get();
+        Collection<Approval> approvals = loader.get();
+        cache.put(key, new Entry(approvals));
+        if (evictions.get() != evictionsBeforeLoad) {
+            // The approvals have been changed during the load, either the eviction removes the entry or it is removed here
+            cache.invalidate(key);
+        }
+        return approvals;
+    }
+
+    /**
+     * Evict the approvals of the user for the client on this node and broadcast the change to other nodes.
+     *
+     * @param userId   user ID
+     * @param clientId client ID
+     */
+    public void evict(String userId, String clientId) {
+        evictLocally(userId, clientId);
+        if (enabled) {
+            tokenRevocationBroadcaster.changeApprovals(userId, clientId);
+        }
+    }
+
+    public void evict(Collection<Approval> approvals) {
+        approvals.stream()
+                .map(approval -> Arrays.asList(approval.getUserId(), approval.getClientId()))
+                .distinct()
+                .forEach(key -> evict(key.get(0), key.get(1)));
+    }
+
+    @EventListener
+    public void approvalChangedEvent(ApprovalChangedEvent event) {
+        evictLocally(event.getUserId(), event.getClientId());
+    }
+
+    private void evictLocally(String userId, String clientId) {
+        evictions.incrementAndGet();
+        cache.invalidate(Arrays.asList(userId, clientId));
+    }
+
+    private static class Entry {
+        private final List<Approval> approvals;
+        private final long           validUntil;
+
+        private Entry(Collection<Approval> approvals) {
+            long now = System.currentTimeMillis();
+            this.approvals = new ArrayList<>(approvals);
+            // The approvals which have already expired can not change the decision any more
+            this.validUntil = approvals.stream()
+                    .map(Approval::getExpiresAt)
+                    .filter(Objects::nonNull)
+                    .mapToLong(Date::getTime)
+                    .filter(expiresAt -> expiresAt > now)
+                    .min()
+                    .orElse(Long.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.infinity.passport.config.oauth2;
+
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token store which is able to read the authentications of many access tokens at once, e.g. for gateway bulk introspection.
+ */
+public interface BatchTokenStore extends TokenStore {
+
+    /**
+     * Read the authentications of the access tokens, invalid or expired tokens are absent from the result.
+     * The default implementation reads them one by one and checks the expiration of each access token,
+     * because e.g. a signed token store does not check it when reading the authentication.
+     * A store backed by a remote database should override it.
+     *
+     * @param tokenValues access token values
+     * @return authentications keyed by the access token value
+     */
+    default Map<String, OAuth2Authentication> readAuthentications(Collection<String> tokenValues) {
+        Map<String, OAuth2Authentication> authentications = new LinkedHashMap<>(tokenValues.size());
+        for (String tokenValue : tokenValues) {
+            OAuth2AccessToken token = readAccessToken(tokenValue);
+            if (token == null || token.isExpired()) {
+                continue;
+            }
+            OAuth2Authentication authentication = readAuthentication(token);
+            if (authentication != null) {
+                authentications.put(tokenValue, authentication);
+            }
+        }
+        return authentications;
+    }
+}
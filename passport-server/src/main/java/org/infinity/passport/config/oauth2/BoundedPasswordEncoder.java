@@ -0,0 +1,122 @@
+package org.infinity.passport.config.oauth2;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.exception.PasswordHashingRejectedException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Collections;
+import java.util.concurrent.*;
+
+/**
+ * Runs the intentionally slow password hashing and verification of the delegate on a dedicated pool sized to the
+ * number of processors with a bounded queue, so that a login storm can occupy at most that many processors and the
+ * other requests keep being served. Hashes which can not be queued or wait longer than the timeout are rejected with
+ * {@link PasswordHashingRejectedException}, which is translated to HTTP 503.
+ * <p>
+ * Every running or queued hash blocks a server worker thread, so the default queue capacity is derived from the pool
+ * size and the number of server worker threads: at most half of the workers wait for hashes, and at most two hashes
+ * per thread are queued, which keeps the wait within a few hash durations.
+ * <p>
+ * A timed out hash which is still queued is cancelled. A hash which has already started can not be interrupted, BCrypt
+ * does not check the interrupt flag, so it keeps its pool thread until it completes although the request has already
+ * been answered with 503. The timeout therefore sheds the waiting requests but not the hashing work already started.
+ * The pool and queue metrics are exported to the meter registry under the name {@link #EXECUTOR_NAME}.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder {
+
+    public static final String EXECUTOR_NAME = "password-hashing";
+
+    private final PasswordEncoder    delegate;
+    private final ThreadPoolExecutor executor;
+    private final long               waitTimeoutMillis;
+    private final Counter            saturatedCounter;
+    private final Counter            timeoutCounter;
+
+    /**
+     * @param delegate              password encoder doing the hashing
+     * @param applicationProperties application properties
+     * @param serverWorkerThreads   number of server worker threads, which bounds the default queue capacity
+     * @param meterRegistry         meter registry
+     */
+    public BoundedPasswordEncoder(PasswordEncoder delegate, ApplicationProperties applicationProperties,
+                                  int serverWorkerThreads, MeterRegistry meterRegistry) {
+        ApplicationProperties.PasswordHash.Executor executorProperties = applicationProperties.getPasswordHash().getExecutor();
+        int poolSize = executorProperties.getPoolSize() > 0 ? executorProperties.getPoolSize() : Runtime.getRuntime().availableProcessors();
+        int queueCapacity = executorProperties.getQueueCapacity() > 0 ? executorProperties.getQueueCapacity()
+                : Math.max(1, Math.min(poolSize * 2, serverWorkerThreads / 2 - poolSize));
+        this.delegate = delegate;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat(EXECUTOR_NAME + "-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.waitTimeoutMillis = executorProperties.getWaitTimeoutMillis();
+        // Pool size, active threads, queue depth and completed tasks
+        new ExecutorServiceMetrics(executor, EXECUTOR_NAME, Collections.emptyList()).bindTo(meterRegistry);
+        this.saturatedCounter = Counter.builder(EXECUTOR_NAME + ".rejected")
+                .description("Number of hashes rejected because the executor was saturated or too slow")
+                .tag("reason", "saturated")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder(EXECUTOR_NAME + ".rejected")
+                .description("Number of hashes rejected because the executor was saturated or too slow")
+                .tag("reason", "timeout")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return execute(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return execute(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        // Only parses the hash
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Shut down the executor along with the application context.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private <T> T execute(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            saturatedCounter.increment();
+            throw new PasswordHashingRejectedException("Password hashing executor is saturated");
+        }
+        try {
+            return future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Only dequeues the hash, a running hash completes on its thread anyway
+            future.cancel(true);
+            timeoutCounter.increment();
+            throw new PasswordHashingRejectedException("Password hashing timed out after " + waitTimeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingRejectedException("Interrupted while waiting for password hashing");
+        } catch (ExecutionException e) {
+            // Rethrow the exception of the delegate as is, e.g. IllegalArgumentException
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.infinity.passport.config.oauth2;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * In-process cache of {@link MongoOAuth2ClientDetails} used by {@link MongoClientDetailsService#loadClientByClientId}.
+ * Every save stamps the client details with a new version, and each node periodically compares the versions of its
+ * cached clients with a single projected query, so that changes made on any node are picked up cluster-wide.
+ * Changes made on this node are evicted immediately, and client details loaded while they are being evicted are not
+ * cached. The version is stamped by the mapping events of a save, so the client details must only be changed by
+ * saving or deleting the entity: an update query, e.g. {@link MongoTemplate#updateFirst}, would leave the stale
+ * client details cached on the other nodes until they expire.
+ * Hit, miss and eviction metrics are exported to the meter registry under the name {@link #CACHE_NAME}.
+ */
+@Component
+@Slf4j
+public class ClientDetailsCache extends AbstractMongoEventListener<MongoOAuth2ClientDetails> {
+
+    public static final String CACHE_NAME = "oauth2.client-details";
+
+    private final MongoTemplate                           mongoTemplate;
+    private final boolean                                 enabled;
+    private final Cache<String, MongoOAuth2ClientDetails> cache;
+    private final AtomicLong                              evictions = new AtomicLong();
+
+    public ClientDetailsCache(MongoTemplate mongoTemplate, ApplicationProperties applicationProperties,
+                              MeterRegistry meterRegistry) {
+        ApplicationProperties.Oauth2.ClientDetailsCache clientDetailsCache = applicationProperties.getOauth2().getClientDetailsCache();
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = clientDetailsCache.isEnabled();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(clientDetailsCache.getMaximumSize())
+                .expireAfterWrite(clientDetailsCache.getExpireAfterWriteSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Get the client details from cache, or load it with the loader and cache it.
+     *
+     * @param clientId client ID
+     * @param loader   loader used on cache miss
+     * @return client details
+     */
+    public Optional<MongoOAuth2ClientDetails> get(String clientId,
+                                                  Function<String, Optional<MongoOAuth2ClientDetails>> loader) {
+        if (!enabled) {
+            return loader.apply(clientId);
+        }
+        MongoOAuth2ClientDetails clientDetails = cache.getIfPresent(clientId);
+        if (clientDetails != null) {
+            return Optional.of(clientDetails);
+        }
+        long evictionsBeforeLoad = evictions.get();
+        Optional<MongoOAuth2ClientDetails> loaded = loader.apply(clientId);
+        loaded.ifPresent(details -> cache.put(clientId, details));
+        if (evictions.get() != evictionsBeforeLoad) {
+            // The client details have been changed during the load, either the eviction removes the entry or it is removed here
+            cache.invalidate(clientId);
+        }
+        return loaded;
+    }
+
+    public void evict(String clientId) {
+        evictions.incrementAndGet();
+        cache.invalidate(clientId);
+    }
+
+    /**
+     * Evict the cached client details whose version has changed or which have been removed on any node.
+     */
+    @Scheduled(fixedDelayString = "${application.oauth2.client-details-cache.version-check-interval-millis:5000}")
+    public void checkVersions() {
+        Map<String, MongoOAuth2ClientDetails> cached = cache.asMap();
+        if (cached.isEmpty()) {
+            return;
+        }
+        Query query = Query.query(Criteria.where("clientId").in(cached.keySet()));
+        query.fields().include("version");
+        Map<String, String> versions = mongoTemplate.find(query, MongoOAuth2ClientDetails.class).stream()
+                .collect(Collectors.toMap(MongoOAuth2ClientDetails::getClientId,
+                        details -> Objects.toString(details.getVersion(), "")));
+        cached.forEach((clientId, details) -> {
+            if (!Objects.toString(details.getVersion(), "").equals(versions.get(clientId))) {
+                log.debug("Evicted changed client details: {}", clientId);
+                evict(clientId);
+            }
+        });
+    }
+
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<MongoOAuth2ClientDetails> event) {
+        // Stamp every change with a new version
+        event.getSource().setVersion(ObjectId.get().toHexString());
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<MongoOAuth2ClientDetails> event) {
+        evict(event.getSource().getClientId());
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<MongoOAuth2ClientDetails> event) {
+        Object clientId = event.getSource().get("_id");
+        if (clientId instanceof String) {
+            evict((String) clientId);
+        } else {
+            // Removed by a query other than ID
+            evictions.incrementAndGet();
+            cache.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.infinity.passport.config.oauth2;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.infinity.passport.config.ApplicationProperties;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short-lived cache of successful client secret verifications, so that the intentionally slow BCrypt matching runs
+ * once per client secret and period instead of on every client_credentials grant.
+ * An entry is keyed by the stored secret hash, which is unique per client and changes whenever the secret changes,
+ * and holds an HMAC of the presented secret under a random per-process key. Raw secrets are never kept in memory,
+ * and failed verifications are never cached, so guessing a secret still pays the full BCrypt cost.
+ * Hit, miss and eviction metrics are exported to the meter registry under the name {@link #CACHE_NAME}.
+ */
+@Component
+public class ClientSecretVerificationCache {
+
+    public static final String CACHE_NAME = "oauth2.client-secret";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final PasswordEncoder       passwordEncoder;
+    private final boolean               enabled;
+    private final Cache<String, byte[]> cache;
+    private final SecretKeySpec         hmacKey;
+
+    public ClientSecretVerificationCache(PasswordEncoder passwordEncoder, ApplicationProperties applicationProperties,
+                                         MeterRegistry meterRegistry) {
+        ApplicationProperties.Oauth2.ClientSecretCache clientSecretCache = applicationProperties.getOauth2().getClientSecretCache();
+        this.passwordEncoder = passwordEncoder;
+        this.enabled = clientSecretCache.isEnabled();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(clientSecretCache.getMaximumSize())
+                .expireAfterWrite(clientSecretCache.getExpireAfterWriteSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.hmacKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+        GuavaCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Verify the presented client secret against the stored hash, consult the cache before the password encoder.
+     *
+     * @param rawSecret     presented client secret
+     * @param encodedSecret stored client secret hash
+     * @return true if matches
+     */
+    public boolean matches(CharSequence rawSecret, String encodedSecret) {
+        if (!enabled || rawSecret == null || encodedSecret == null) {
+            return passwordEncoder.matches(rawSecret, encodedSecret);
+        }
+        byte[] presented = hmac(rawSecret);
+        byte[] verified = cache.getIfPresent(encodedSecret);
+        if (verified != null && MessageDigest.isEqual(verified, presented)) {
+            return true;
+        }
+        boolean matches = passwordEncoder.matches(rawSecret, encodedSecret);
+        if (matches) {
+            cache.put(encodedSecret, presented);
+        }
+        return matches;
+    }
+
+    /**
+     * Forget the verification of the stored client secret hash
+     *
+     * @param encodedSecret stored client secret hash
+     */
+    public void evict(String encodedSecret) {
+        if (encodedSecret != null) {
+            cache.invalidate(encodedSecret);
+        }
+    }
+
+    /**
+     * Get the password encoder used to authenticate the clients on the token endpoint
+     *
+     * @return password encoder
+     */
+    public PasswordEncoder asPasswordEncoder() {
+        return new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                return passwordEncoder.encode(rawPassword);
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                return ClientSecretVerificationCache.this.matches(rawPassword, encodedPassword);
+            }
+        };
+    }
+
+    private byte[] hmac(CharSequence rawSecret) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(hmacKey);
+            return mac.doFinal(rawSecret.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to calculate HMAC of client secret", e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.infinity.passport.config.oauth2;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * BCrypt password encoder whose hashes need to be upgraded whenever their cost differs from the configured strength,
+ * so that the cost can be tuned in both directions and the existing hashes follow on the next successful login.
+ * {@link BCryptPasswordEncoder} itself only upgrades the hashes with a lower cost.
+ */
+@Slf4j
+public class CostAwareBCryptPasswordEncoder extends BCryptPasswordEncoder {
+
+    /**
+     * Algorithm ID prefixed to the hashes by the {@link DelegatingPasswordEncoder}, e.g. {bcrypt}$2a$10$...
+     */
+    public static final  String  ID              = "bcrypt";
+    public static final  int     MIN_STRENGTH    = 4;
+    public static final  int     MAX_STRENGTH    = 31;
+    private static final Pattern BCRYPT_PATTERN  = Pattern.compile("\\A\\$2(a|y|b)?\\$(\\d\\d)\\$[./0-9A-Za-z]{53}");
+    private static final String  SAMPLE_PASSWORD = "calibrate-password";
+
+    private final int strength;
+
+    public CostAwareBCryptPasswordEncoder(int strength) {
+        super(strength);
+        this.strength = strength;
+    }
+
+    /**
+     * Create the password encoder which records the algorithm ID with each hash, the hashes without ID were created
+     * by BCrypt before and are upgraded on the next login.
+     *
+     * @param strength log2 of the BCrypt rounds
+     * @return password encoder
+     */
+    public static PasswordEncoder createDelegatingPasswordEncoder(int strength) {
+        PasswordEncoder bcrypt = new CostAwareBCryptPasswordEncoder(strength);
+        DelegatingPasswordEncoder passwordEncoder = new DelegatingPasswordEncoder(ID, Collections.singletonMap(ID, bcrypt));
+        passwordEncoder.setDefaultPasswordEncoderForMatches(bcrypt);
+        return passwordEncoder;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        if (encodedPassword == null || encodedPassword.isEmpty()) {
+            return false;
+        }
+        Matcher matcher = BCRYPT_PATTERN.matcher(encodedPassword);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Encoded password does not look like BCrypt");
+        }
+        return Integer.parseInt(matcher.group(2)) != strength;
+    }
+
+    /**
+     * Find the highest strength whose hash takes no longer than the target time on the current hardware.
+     * The time doubles with each strength, so the strengths are measured from the lowest one upwards.
+     *
+     * @param targetMillis target time per hash
+     * @return calibrated strength, at least {@link #MIN_STRENGTH}
+     */
+    public static int calibrateStrength(long targetMillis) {
+        // Warm up
+        measureMillis(MIN_STRENGTH);
+        int calibrated = MIN_STRENGTH;
+        for (int strength = MIN_STRENGTH; strength <= MAX_STRENGTH; strength++) {
+            long elapsedMillis = measureMillis(strength);
+            log.info("BCrypt strength {} takes {} ms per hash", strength, elapsedMillis);
+            if (elapsedMillis > targetMillis) {
+                break;
+            }
+            calibrated = strength;
+        }
+        return calibrated;
+    }
+
+    private static long measureMillis(int strength) {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+        long start = System.nanoTime();
+        encoder.encode(SAMPLE_PASSWORD);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
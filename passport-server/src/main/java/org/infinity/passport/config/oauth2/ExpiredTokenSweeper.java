@@ -0,0 +1,143 @@
+package org.infinity.passport.config.oauth2;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.infinity.passport.domain.MongoOAuth2Approval;
+import org.infinity.passport.domain.MongoOAuth2AuthorizationCode;
+import org.infinity.passport.domain.MongoOAuth2RefreshToken;
+import org.infinity.passport.domain.TaskLock;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes the expired access tokens, refresh tokens, authorization codes and approvals periodically in bounded
+ * batches, because the TTL monitor of MongoDB only runs about once a minute and falls behind on large collections,
+ * and approvals have no TTL index at all. Each run pauses between batches and stops after the maximum duration.
+ * Only the node holding the {@link TaskLock} of the sweeper runs it, the lock is held for an interval.
+ * The number of deleted documents and the duration of each run are exported per collection to the meter registry with
+ * the prefix {@link #METRIC_PREFIX}.
+ */
+@Component
+@Slf4j
+public class ExpiredTokenSweeper {
+
+    public static final String METRIC_PREFIX = "oauth2.sweeper";
+    public static final String LOCK_NAME     = "ExpiredTokenSweeper";
+
+    private final String                               nodeId = UUID.randomUUID().toString();
+    private final MongoTemplate                        mongoTemplate;
+    private final MeterRegistry                        meterRegistry;
+    private final ApplicationProperties.Oauth2.Sweeper sweeper;
+
+    public ExpiredTokenSweeper(MongoTemplate mongoTemplate, MeterRegistry meterRegistry,
+                               ApplicationProperties applicationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+        this.sweeper = applicationProperties.getOauth2().getSweeper();
+    }
+
+    @Scheduled(fixedDelayString = "${application.oauth2.sweeper.interval-millis:60000}",
+            initialDelayString = "${application.oauth2.sweeper.interval-millis:60000}")
+    public void sweep() {
+        if (!sweeper.isEnabled() || !tryLock()) {
+            return;
+        }
+        Date now = new Date();
+        sweep(MongoOAuth2AccessToken.class, "expiration", now);
+        sweep(MongoOAuth2RefreshToken.class, "expiration", now);
+        sweep(MongoOAuth2AuthorizationCode.class, "expiration", now);
+        sweep(MongoOAuth2Approval.class, "expiresAt", now);
+    }
+
+    /**
+     * Take or extend the lock of the sweeper for an interval. It is not released after a run, so that the other nodes
+     * skip the interval, and it is taken over by another node if this one stops.
+     *
+     * @return {@code true} if this node holds the lock
+     */
+    public boolean tryLock() {
+        Instant now = Instant.now();
+        Query query = Query.query(Criteria.where("_id").is(LOCK_NAME)
+                .orOperator(Criteria.where("lockedUntil").lte(now), Criteria.where("lockedBy").is(nodeId)));
+        Update update = Update.update("lockedBy", nodeId).set("lockedUntil", now.plusMillis(sweeper.getIntervalMillis()));
+        try {
+            // Inserting the lock fails with a duplicate key if another node holds it
+            mongoTemplate.upsert(query, update, TaskLock.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Delete the documents of the collection which expired before now in batches.
+     *
+     * @param entityClass     entity class
+     * @param expirationField indexed expiration field
+     * @param now             current time
+     * @return number of deleted documents
+     */
+    public long sweep(Class<?> entityClass, String expirationField, Date now) {
+        String collectionName = mongoTemplate.getCollectionName(entityClass);
+        long startTime = System.nanoTime();
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(sweeper.getMaxDurationMillis());
+        long deleted = 0;
+        try {
+            while (true) {
+                Query query = Query.query(Criteria.where(expirationField).lt(now)).limit(sweeper.getBatchSize());
+                query.fields().include("_id");
+                List<Object> ids = mongoTemplate.find(query, Document.class, collectionName).stream()
+                        .map(document -> document.get("_id"))
+                        .collect(Collectors.toList());
+                if (ids.isEmpty()) {
+                    break;
+                }
+                // Check the expiration again in case a document has been renewed in the meantime
+                deleted += mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids).and(expirationField).lt(now)),
+                        collectionName).getDeletedCount();
+                if (ids.size() < sweeper.getBatchSize() || System.nanoTime() >= deadline) {
+                    break;
+                }
+                TimeUnit.MILLISECONDS.sleep(sweeper.getBatchPauseMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            record(collectionName, deleted, System.nanoTime() - startTime);
+        }
+        if (deleted > 0) {
+            log.debug("Deleted {} expired documents from {}", deleted, collectionName);
+        }
+        return deleted;
+    }
+
+    private void record(String collectionName, long deleted, long durationNanos) {
+        DistributionSummary.builder(METRIC_PREFIX + ".deleted")
+                .description("Number of expired documents deleted per run")
+                .tag("collection", collectionName)
+                .register(meterRegistry)
+                .record(deleted);
+        Timer.builder(METRIC_PREFIX + ".duration")
+                .description("Duration of a run")
+                .tag("collection", collectionName)
+                .register(meterRegistry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+}
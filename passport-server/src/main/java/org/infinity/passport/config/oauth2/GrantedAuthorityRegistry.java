@@ -0,0 +1,86 @@
+package org.infinity.passport.config.oauth2;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.infinity.passport.domain.Authority;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical {@link GrantedAuthority} instances shared by token and user detail deserialization.
+ * There are only a handful of distinct authorities, so the registered ones are pre-built once and combinations of them
+ * are cached as immutable sets, instead of allocating new instances on every read.
+ * Unregistered names still get a fresh instance and are never pooled, so that arbitrary stored data can not grow the registry.
+ * The registry is refreshed from the Authority collection by {@link GrantedAuthorityRegistryRefresher}.
+ * It is only refreshed on the node which changed the authority, and on the other nodes at their next startup.
+ * That is acceptable because the registry only affects the allocation: an authority missing from it still gets
+ * an equal fresh instance, and a deleted one is only kept pooled.
+ */
+public abstract class GrantedAuthorityRegistry {
+
+    private static final List<String> BUILT_IN_AUTHORITIES = Arrays.asList(Authority.ANONYMOUS, Authority.ADMIN,
+            Authority.USER, Authority.DEVELOPER);
+
+    private static final Map<Set<String>, Set<GrantedAuthority>> AUTHORITY_SETS = new ConcurrentHashMap<>();
+    private static volatile Map<String, GrantedAuthority>        authorities    = build(Collections.emptyMap(), Collections.emptyList());
+
+    /**
+     * Replace the registered authorities, the built-in ones are always registered.
+     *
+     * @param authorityNames authority names
+     */
+    public static void register(Collection<String> authorityNames) {
+        authorities = build(authorities, authorityNames);
+        AUTHORITY_SETS.clear();
+    }
+
+    /**
+     * Get the canonical authority instance
+     *
+     * @param authorityName authority name
+     * @return granted authority
+     */
+    public static GrantedAuthority valueOf(String authorityName) {
+        GrantedAuthority authority = authorities.get(authorityName);
+        return authority != null ? authority : new SimpleGrantedAuthority(authorityName);
+    }
+
+    /**
+     * Get the immutable authority set of the names
+     *
+     * @param authorityNames authority names
+     * @return immutable granted authority set
+     */
+    public static Set<GrantedAuthority> setOf(Collection<String> authorityNames) {
+        if (authorityNames.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Map<String, GrantedAuthority> registered = authorities;
+        if (!registered.keySet().containsAll(authorityNames)) {
+            ImmutableSet.Builder<GrantedAuthority> builder = ImmutableSet.builder();
+            authorityNames.forEach(name -> builder.add(valueOf(name)));
+            return builder.build();
+        }
+        Set<String> key = authorityNames instanceof Set ? (Set<String>) authorityNames : new HashSet<>(authorityNames);
+        Set<GrantedAuthority> authoritySet = AUTHORITY_SETS.get(key);
+        if (authoritySet == null) {
+            ImmutableSet.Builder<GrantedAuthority> builder = ImmutableSet.builder();
+            key.forEach(name -> builder.add(registered.get(name)));
+            authoritySet = builder.build();
+            AUTHORITY_SETS.put(ImmutableSet.copyOf(key), authoritySet);
+        }
+        return authoritySet;
+    }
+
+    private static Map<String, GrantedAuthority> build(Map<String, GrantedAuthority> previous,
+                                                       Collection<String> authorityNames) {
+        Map<String, GrantedAuthority> map = new HashMap<>();
+        // Keep the existing instances, so that the ones already handed out stay canonical
+        BUILT_IN_AUTHORITIES.forEach(name -> map.put(name, previous.getOrDefault(name, new SimpleGrantedAuthority(name))));
+        authorityNames.forEach(name -> map.computeIfAbsent(name, n -> previous.getOrDefault(n, new SimpleGrantedAuthority(n))));
+        return ImmutableMap.copyOf(map);
+    }
+}
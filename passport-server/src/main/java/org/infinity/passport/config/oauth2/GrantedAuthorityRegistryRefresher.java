@@ -0,0 +1,47 @@
+package org.infinity.passport.config.oauth2;
+
+import lombok.extern.slf4j.Slf4j;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.repository.AuthorityRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Refreshes {@link GrantedAuthorityRegistry} from the Authority collection after startup and whenever an authority changes.
+ * The mapping events are only received by the node saving the authority, the other nodes are not notified.
+ */
+@Component
+@Slf4j
+public class GrantedAuthorityRegistryRefresher extends AbstractMongoEventListener<Authority> {
+
+    private final AuthorityRepository authorityRepository;
+
+    public GrantedAuthorityRegistryRefresher(AuthorityRepository authorityRepository) {
+        this.authorityRepository = authorityRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void refresh() {
+        List<String> authorityNames = authorityRepository.findAll().stream().map(Authority::getName)
+                .collect(Collectors.toList());
+        GrantedAuthorityRegistry.register(authorityNames);
+        log.debug("Registered granted authorities: {}", authorityNames);
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Authority> event) {
+        refresh();
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Authority> event) {
+        refresh();
+    }
+}
@@ -0,0 +1,467 @@
+package org.infinity.passport.config.oauth2;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.oauth2.common.*;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * In-process token store for single-node and test deployments, and the local tier of {@link TieredTokenStore}.
+ * Each token is kept together with its authentication as one compact byte array keyed by the token value, instead of
+ * an object graph of dozens of objects, so that millions of live tokens neither bloat the old generation nor slow down
+ * its collection. A token is only decoded when it is read. Expired tokens are purged periodically.
+ * As the local tier, the number of access tokens and the time they are kept are bounded, because they can be
+ * reloaded from MongoDB, while as the only store they are kept until they expire.
+ */
+public class LocalTokenStore implements BatchTokenStore {
+
+    public static final String SIZE_METRIC_NAME = "oauth2.local-token-store.size";
+
+    private static final long NO_EXPIRATION = -1L;
+
+    private static final byte REFRESH_TOKEN_NONE     = 0;
+    private static final byte REFRESH_TOKEN          = 1;
+    private static final byte REFRESH_TOKEN_EXPIRING = 2;
+
+    private static final byte VALUE_NULL    = 0;
+    private static final byte VALUE_STRING  = 1;
+    private static final byte VALUE_BOOLEAN = 2;
+    private static final byte VALUE_INTEGER = 3;
+    private static final byte VALUE_LONG    = 4;
+    private static final byte VALUE_DOUBLE  = 5;
+    private static final byte VALUE_LIST    = 6;
+    private static final byte VALUE_MAP     = 7;
+
+    private final ConcurrentMap<String, byte[]>      accessTokens;
+    private final ConcurrentMap<String, byte[]>      refreshTokens                      = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String>      accessTokenValueByAuthenticationId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String>      accessTokenValueByRefreshToken     = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> accessTokenValuesByClientId        = new ConcurrentHashMap<>();
+    private final AuthenticationKeyGenerator         authenticationKeyGenerator         = new DefaultAuthenticationKeyGenerator();
+
+    /**
+     * Create the store which keeps the tokens until they expire.
+     *
+     * @param meterRegistry meter registry
+     */
+    public LocalTokenStore(MeterRegistry meterRegistry) {
+        this(0L, 0L, meterRegistry);
+    }
+
+    /**
+     * Create the store which drops an access token when the maximum size is reached or when it has been kept for
+     * the given time, even if it has not expired yet.
+     *
+     * @param maximumSize             maximum number of access tokens, 0 for unbounded
+     * @param expireAfterWriteSeconds time to keep an access token, 0 for until it expires
+     * @param meterRegistry           meter registry
+     */
+    public LocalTokenStore(long maximumSize, long expireAfterWriteSeconds, MeterRegistry meterRegistry) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (maximumSize > 0) {
+            builder.maximumSize(maximumSize);
+        }
+        if (expireAfterWriteSeconds > 0) {
+            builder.expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS);
+        }
+        // The indexes of the explicitly removed or replaced tokens are maintained by the callers
+        this.accessTokens = builder.removalListener((RemovalNotification<String, byte[]> notification) -> {
+            if (notification.wasEvicted() && notification.getValue() != null) {
+                removeIndexes(notification.getKey(), decodeAccessTokenHeader(notification.getValue()));
+            }
+        }).<String, byte[]>build().asMap();
+        Gauge.builder(SIZE_METRIC_NAME, accessTokens, Map::size)
+                .description("Number of tokens kept in process")
+                .tag("type", "access")
+                .register(meterRegistry);
+        Gauge.builder(SIZE_METRIC_NAME, refreshTokens, Map::size)
+                .description("Number of tokens kept in process")
+                .tag("type", "refresh")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+        return readAuthentication(token.getValue());
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(String tokenValue) {
+        byte[] entry = accessTokens.get(tokenValue);
+        if (entry == null || isExpired(decodeAccessTokenHeader(entry).expiration, System.currentTimeMillis())) {
+            // An expired token may still be present until the next purge
+            return null;
+        }
+        return decodeAccessToken(tokenValue, entry).authentication;
+    }
+
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        AccessTokenHeader header = new AccessTokenHeader(token, authentication, authenticationKeyGenerator.extractKey(authentication));
+        byte[] previous = accessTokens.put(token.getValue(), encodeAccessToken(header, token, authentication));
+        if (previous != null) {
+            removeIndexes(token.getValue(), decodeAccessTokenHeader(previous));
+        }
+        accessTokenValueByAuthenticationId.put(header.authenticationId, token.getValue());
+        if (header.refreshToken != null) {
+            accessTokenValueByRefreshToken.put(header.refreshToken, token.getValue());
+        }
+        if (header.clientId != null) {
+            accessTokenValuesByClientId.computeIfAbsent(header.clientId, key -> ConcurrentHashMap.newKeySet()).add(token.getValue());
+        }
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+        byte[] entry = accessTokens.get(tokenValue);
+        return entry == null ? null : decodeAccessToken(tokenValue, entry).token;
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+        removeAccessToken(token.getValue());
+    }
+
+    /**
+     * Remove the access token and its indexes
+     *
+     * @param tokenValue access token value
+     */
+    public void removeAccessToken(String tokenValue) {
+        byte[] removed = accessTokens.remove(tokenValue);
+        if (removed != null) {
+            removeIndexes(tokenValue, decodeAccessTokenHeader(removed));
+        }
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+        refreshTokens.put(refreshToken.getValue(), encodeRefreshToken(refreshToken, authentication));
+    }
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+        byte[] entry = refreshTokens.get(tokenValue);
+        return entry == null ? null : decodeRefreshToken(tokenValue, entry).token;
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+        byte[] entry = refreshTokens.get(token.getValue());
+        return entry == null ? null : decodeRefreshToken(token.getValue(), entry).authentication;
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+        refreshTokens.remove(token.getValue());
+    }
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+        String accessTokenValue = accessTokenValueByRefreshToken.remove(refreshToken.getValue());
+        if (accessTokenValue != null) {
+            removeAccessToken(accessTokenValue);
+        }
+    }
+
+    @Override
+    public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+        String accessTokenValue = accessTokenValueByAuthenticationId.get(authenticationKeyGenerator.extractKey(authentication));
+        return accessTokenValue == null ? null : readAccessToken(accessTokenValue);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+        return accessTokenValuesByClientId.getOrDefault(clientId, Collections.emptySet()).stream()
+                .map(tokenValue -> {
+                    byte[] entry = accessTokens.get(tokenValue);
+                    return entry != null && Objects.equals(decodeAccessTokenHeader(entry).userName, userName)
+                            ? decodeAccessToken(tokenValue, entry).token : null;
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+        return accessTokenValuesByClientId.getOrDefault(clientId, Collections.emptySet()).stream()
+                .map(this::readAccessToken)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Remove the expired access and refresh tokens, only the headers of the entries are decoded.
+     */
+    @Scheduled(fixedDelayString = "${application.oauth2.local-token-store.purge-interval-millis:60000}")
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        accessTokens.forEach((tokenValue, entry) -> {
+            if (isExpired(decodeAccessTokenHeader(entry).expiration, now)) {
+                removeAccessToken(tokenValue);
+            }
+        });
+        refreshTokens.forEach((tokenValue, entry) -> {
+            if (isExpired(readExpiration(entry), now)) {
+                refreshTokens.remove(tokenValue, entry);
+            }
+        });
+    }
+
+    private void removeIndexes(String tokenValue, AccessTokenHeader header) {
+        accessTokenValueByAuthenticationId.remove(header.authenticationId, tokenValue);
+        if (header.refreshToken != null) {
+            accessTokenValueByRefreshToken.remove(header.refreshToken, tokenValue);
+        }
+        if (header.clientId != null) {
+            accessTokenValuesByClientId.computeIfPresent(header.clientId, (clientId, tokenValues) -> {
+                tokenValues.remove(tokenValue);
+                return tokenValues.isEmpty() ? null : tokenValues;
+            });
+        }
+    }
+
+    private static boolean isExpired(long expiration, long now) {
+        return expiration != NO_EXPIRATION && expiration <= now;
+    }
+
+    private static byte[] encodeAccessToken(AccessTokenHeader header, OAuth2AccessToken token,
+                                            OAuth2Authentication authentication) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            // The header is enough to maintain the indexes and to purge
+            out.writeLong(header.expiration);
+            out.writeUTF(header.authenticationId);
+            OAuth2AuthenticationCodec.writeNullableString(out, header.clientId);
+            OAuth2AuthenticationCodec.writeNullableString(out, header.userName);
+            OAuth2AuthenticationCodec.writeNullableString(out, header.refreshToken);
+            // The body
+            OAuth2AuthenticationCodec.writeNullableString(out, token.getTokenType());
+            OAuth2AuthenticationCodec.writeStrings(out, token.getScope());
+            writeRefreshToken(out, token.getRefreshToken());
+            writeMap(out, token.getAdditionalInformation());
+            OAuth2AuthenticationCodec.writeBytes(out, OAuth2AuthenticationCodec.encode(authentication));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode access token", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static AccessTokenHeader decodeAccessTokenHeader(byte[] entry) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry))) {
+            return new AccessTokenHeader(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode access token", e);
+        }
+    }
+
+    private static AccessTokenEntry decodeAccessToken(String tokenValue, byte[] entry) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry))) {
+            AccessTokenHeader header = new AccessTokenHeader(in);
+            DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(tokenValue);
+            if (header.expiration != NO_EXPIRATION) {
+                token.setExpiration(new Date(header.expiration));
+            }
+            token.setTokenType(OAuth2AuthenticationCodec.readNullableString(in));
+            token.setScope(OAuth2AuthenticationCodec.readStrings(in));
+            token.setRefreshToken(readRefreshToken(in, header.refreshToken));
+            token.setAdditionalInformation(readMap(in));
+            OAuth2Authentication authentication = OAuth2AuthenticationCodec.decode(OAuth2AuthenticationCodec.readBytes(in));
+            return new AccessTokenEntry(token, authentication);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode access token", e);
+        }
+    }
+
+    private static byte[] encodeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(refreshToken instanceof ExpiringOAuth2RefreshToken
+                    && ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration() != null
+                    ? ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration().getTime() : NO_EXPIRATION);
+            OAuth2AuthenticationCodec.writeBytes(out, OAuth2AuthenticationCodec.encode(authentication));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode refresh token", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long readExpiration(byte[] entry) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry))) {
+            return in.readLong();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode token", e);
+        }
+    }
+
+    private static RefreshTokenEntry decodeRefreshToken(String tokenValue, byte[] entry) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry))) {
+            long expiration = in.readLong();
+            OAuth2RefreshToken token = expiration == NO_EXPIRATION ? new DefaultOAuth2RefreshToken(tokenValue)
+                    : new DefaultExpiringOAuth2RefreshToken(tokenValue, new Date(expiration));
+            OAuth2Authentication authentication = OAuth2AuthenticationCodec.decode(OAuth2AuthenticationCodec.readBytes(in));
+            return new RefreshTokenEntry(token, authentication);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode refresh token", e);
+        }
+    }
+
+    private static void writeRefreshToken(DataOutputStream out, OAuth2RefreshToken refreshToken) throws IOException {
+        if (refreshToken == null) {
+            out.writeByte(REFRESH_TOKEN_NONE);
+        } else if (refreshToken instanceof ExpiringOAuth2RefreshToken
+                && ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration() != null) {
+            out.writeByte(REFRESH_TOKEN_EXPIRING);
+            out.writeLong(((ExpiringOAuth2RefreshToken) refreshToken).getExpiration().getTime());
+        } else {
+            out.writeByte(REFRESH_TOKEN);
+        }
+    }
+
+    private static OAuth2RefreshToken readRefreshToken(DataInputStream in, String value) throws IOException {
+        // The value of the refresh token is kept in the header
+        byte type = in.readByte();
+        if (type == REFRESH_TOKEN_EXPIRING) {
+            return new DefaultExpiringOAuth2RefreshToken(value, new Date(in.readLong()));
+        }
+        return type == REFRESH_TOKEN ? new DefaultOAuth2RefreshToken(value) : null;
+    }
+
+    /**
+     * Write the additional information as a plain map of the JSON value types, like it is stored in MongoDB,
+     * instead of serializing arbitrary objects.
+     */
+    private static void writeMap(DataOutputStream out, Map<?, ?> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            out.writeUTF(String.valueOf(entry.getKey()));
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, Object> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, Object> map = new LinkedHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), readValue(in));
+        }
+        return map;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(VALUE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Collection) {
+            out.writeByte(VALUE_LIST);
+            out.writeInt(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            out.writeByte(VALUE_MAP);
+            writeMap(out, (Map<?, ?>) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported additional information value type: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return in.readUTF();
+            case VALUE_BOOLEAN:
+                return in.readBoolean();
+            case VALUE_INTEGER:
+                return in.readInt();
+            case VALUE_LONG:
+                return in.readLong();
+            case VALUE_DOUBLE:
+                return in.readDouble();
+            case VALUE_LIST:
+                int size = in.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            case VALUE_MAP:
+                return readMap(in);
+            default:
+                throw new IOException("Unknown additional information value type: " + type);
+        }
+    }
+
+    private static class AccessTokenHeader {
+        private final long   expiration;
+        private final String authenticationId;
+        private final String clientId;
+        private final String userName;
+        private final String refreshToken;
+
+        private AccessTokenHeader(OAuth2AccessToken token, OAuth2Authentication authentication, String authenticationId) {
+            this.expiration = token.getExpiration() != null ? token.getExpiration().getTime() : NO_EXPIRATION;
+            this.authenticationId = authenticationId;
+            this.clientId = authentication.getOAuth2Request().getClientId();
+            this.userName = authentication.getName();
+            this.refreshToken = token.getRefreshToken() != null ? token.getRefreshToken().getValue() : null;
+        }
+
+        private AccessTokenHeader(DataInputStream in) throws IOException {
+            this.expiration = in.readLong();
+            this.authenticationId = in.readUTF();
+            this.clientId = OAuth2AuthenticationCodec.readNullableString(in);
+            this.userName = OAuth2AuthenticationCodec.readNullableString(in);
+            this.refreshToken = OAuth2AuthenticationCodec.readNullableString(in);
+        }
+    }
+
+    private static class AccessTokenEntry {
+        private final OAuth2AccessToken    token;
+        private final OAuth2Authentication authentication;
+
+        private AccessTokenEntry(OAuth2AccessToken token, OAuth2Authentication authentication) {
+            this.token = token;
+            this.authentication = authentication;
+        }
+    }
+
+    private static class RefreshTokenEntry {
+        private final OAuth2RefreshToken   token;
+        private final OAuth2Authentication authentication;
+
+        private RefreshTokenEntry(OAuth2RefreshToken token, OAuth2Authentication authentication) {
+            this.token = token;
+            this.authentication = authentication;
+        }
+    }
+}
@@ -1,17 +1,19 @@
 package org.infinity.passport.config.oauth2;
 
+import com.mongodb.bulk.BulkWriteResult;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.CollectionUtils;
 import org.infinity.passport.domain.MongoOAuth2Approval;
 import org.infinity.passport.repository.OAuth2ApprovalRepository;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.oauth2.provider.approval.Approval;
 import org.springframework.security.oauth2.provider.approval.ApprovalStore;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 
 @Component
 @Slf4j
@@ -19,70 +21,95 @@ public class MongoApprovalStore implements ApprovalStore {
 
     private final OAuth2ApprovalRepository oAuth2ApprovalRepository;
 
+    private final MongoTemplate mongoTemplate;
+
+    private final ApprovalCache approvalCache;
+
     private boolean handleRevocationsAsExpiry = false;
 
-    public MongoApprovalStore(OAuth2ApprovalRepository oAuth2ApprovalRepository) {
+    public MongoApprovalStore(OAuth2ApprovalRepository oAuth2ApprovalRepository, MongoTemplate mongoTemplate,
+                              ApprovalCache approvalCache) {
         this.oAuth2ApprovalRepository = oAuth2ApprovalRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.approvalCache = approvalCache;
     }
 
     public void setHandleRevocationsAsExpiry(boolean handleRevocationsAsExpiry) {
         this.handleRevocationsAsExpiry = handleRevocationsAsExpiry;
     }
 
+    /**
+     * Upsert all the approvals with a single bulk write keyed on the unique (userId, clientId, scope) index.
+     */
     @Override
     public boolean addApprovals(Collection<Approval> approvals) {
         log.debug("Adding approvals: {}", approvals);
-
-        for (final Approval approval : approvals) {
-            List<MongoOAuth2Approval> mongoDBApprovals = this.oAuth2ApprovalRepository
-                    .findByUserIdAndClientIdAndScope(approval.getUserId(), approval.getClientId(), approval.getScope());
-            if (CollectionUtils.isEmpty(mongoDBApprovals)) {
-                saveApproval(new MongoOAuth2Approval(), approval);
-            } else {
-                mongoDBApprovals.forEach(mongoDBApproval -> saveApproval(mongoDBApproval, approval));
-            }
+        if (approvals.isEmpty()) {
+            return true;
         }
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MongoOAuth2Approval.class);
+        // Concurrent upserts of the same approval in an unordered bulk write may violate the unique index
+        for (final Approval approval : distinct(approvals)) {
+            Update update = new Update()
+                    .set("expiresAt", approval.getExpiresAt())
+                    .set("status", approval.getStatus() == null ? Approval.ApprovalStatus.APPROVED : approval.getStatus())
+                    .set("lastUpdatedAt", approval.getLastUpdatedAt());
+            bulkOperations.upsert(approvalQuery(approval), update);
+        }
+        bulkOperations.execute();
+        approvalCache.evict(approvals);
         return true;
     }
 
-    private void saveApproval(final MongoOAuth2Approval mongoDBApproval, final Approval approval) {
-        log.debug("Refreshing approval: {}", approval);
-        mongoDBApproval.setExpiresAt(approval.getExpiresAt());
-        mongoDBApproval.setStatus(approval.getStatus() == null ? Approval.ApprovalStatus.APPROVED : approval.getStatus());
-        mongoDBApproval.setLastUpdatedAt(approval.getLastUpdatedAt());
-        mongoDBApproval.setUserId(approval.getUserId());
-        mongoDBApproval.setClientId(approval.getClientId());
-        mongoDBApproval.setScope(approval.getScope());
-        this.oAuth2ApprovalRepository.save(mongoDBApproval);
-    }
-
+    /**
+     * Revoke all the approvals with a single bulk write, it succeeds only if every approval exists.
+     */
     @Override
     public boolean revokeApprovals(Collection<Approval> approvals) {
         log.debug("Revoking approvals: {}", approvals);
-        boolean success = true;
-
-        for (final Approval approval : approvals) {
-            List<MongoOAuth2Approval> mongoDBApprovals = this.oAuth2ApprovalRepository
-                    .findByUserIdAndClientIdAndScope(approval.getUserId(), approval.getClientId(), approval.getScope());
-
-            if (mongoDBApprovals.size() != 1) {
-                success = false;
+        if (approvals.isEmpty()) {
+            return true;
+        }
+        // The affected count is compared with the number of distinct approvals, which are matched once each
+        Collection<Approval> distinctApprovals = distinct(approvals);
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MongoOAuth2Approval.class);
+        for (final Approval approval : distinctApprovals) {
+            if (handleRevocationsAsExpiry) {
+                bulkOperations.updateMulti(approvalQuery(approval), Update.update("expiresAt", new Date()));
+            } else {
+                bulkOperations.remove(approvalQuery(approval));
             }
+        }
+        BulkWriteResult result = bulkOperations.execute();
+        approvalCache.evict(approvals);
+        int affectedCount = handleRevocationsAsExpiry ? result.getMatchedCount() : result.getDeletedCount();
+        return affectedCount == distinctApprovals.size();
+    }
 
-            for (final MongoOAuth2Approval mongoDBApproval : mongoDBApprovals) {
-                if (handleRevocationsAsExpiry) {
-                    mongoDBApproval.setExpiresAt(new Date());
-                    this.oAuth2ApprovalRepository.save(mongoDBApproval);
-                } else {
-                    this.oAuth2ApprovalRepository.delete(mongoDBApproval);
-                }
-            }
+    /**
+     * Keep the last approval of each (userId, clientId, scope).
+     */
+    private Collection<Approval> distinct(Collection<Approval> approvals) {
+        Map<List<String>, Approval> distinctApprovals = new LinkedHashMap<>(approvals.size() * 2);
+        for (Approval approval : approvals) {
+            distinctApprovals.put(Arrays.asList(approval.getUserId(), approval.getClientId(), approval.getScope()), approval);
         }
-        return success;
+        return distinctApprovals.values();
+    }
+
+    private Query approvalQuery(Approval approval) {
+        return Query.query(Criteria.where("userId").is(approval.getUserId())
+                .and("clientId").is(approval.getClientId())
+                .and("scope").is(approval.getScope()));
     }
 
+    /**
+     * It is called on every /oauth/authorize request to decide whether the consent is needed, so the approvals are
+     * served from {@link ApprovalCache}.
+     */
     @Override
     public Collection<Approval> getApprovals(String userId, String clientId) {
-        return new ArrayList<>(this.oAuth2ApprovalRepository.findByUserIdAndClientId(userId, clientId));
+        return approvalCache.get(userId, clientId,
+                () -> new ArrayList<>(this.oAuth2ApprovalRepository.findByUserIdAndClientId(userId, clientId)));
     }
 }
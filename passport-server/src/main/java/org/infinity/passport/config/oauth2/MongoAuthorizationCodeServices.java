@@ -1,35 +1,55 @@
 package org.infinity.passport.config.oauth2;
 
+import org.infinity.passport.config.ApplicationProperties;
 import org.infinity.passport.domain.MongoOAuth2AuthorizationCode;
 import org.infinity.passport.repository.OAuth2AuthorizationCodeRepository;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.code.RandomValueAuthorizationCodeServices;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+
 @Service
 public class MongoAuthorizationCodeServices extends RandomValueAuthorizationCodeServices {
 
     private final OAuth2AuthorizationCodeRepository oAuth2CodeRepository;
 
-    public MongoAuthorizationCodeServices(OAuth2AuthorizationCodeRepository oAuth2CodeRepository) {
+    private final MongoTemplate mongoTemplate;
+
+    private final long codeValiditySeconds;
+
+    public MongoAuthorizationCodeServices(OAuth2AuthorizationCodeRepository oAuth2CodeRepository,
+                                          MongoTemplate mongoTemplate,
+                                          ApplicationProperties applicationProperties) {
         this.oAuth2CodeRepository = oAuth2CodeRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.codeValiditySeconds = applicationProperties.getOauth2().getAuthorizationCodeValiditySeconds();
     }
 
     @Override
     protected void store(String code, OAuth2Authentication authentication) {
-        this.oAuth2CodeRepository.save(new MongoOAuth2AuthorizationCode(code, authentication));
+        this.oAuth2CodeRepository.insert(new MongoOAuth2AuthorizationCode(code, authentication,
+                Instant.now().plusSeconds(codeValiditySeconds)));
     }
 
     /**
      * Authorization code will be deleted immediately after authentication process.
+     * Find and delete is a single atomic operation, so a code can never be redeemed twice.
      */
     @Override
     public OAuth2Authentication remove(String code) {
-        MongoOAuth2AuthorizationCode oAuth2AuthenticationCode = oAuth2CodeRepository.findOneByCode(code);
-        if (oAuth2AuthenticationCode != null && oAuth2AuthenticationCode.getAuthentication() != null) {
-            oAuth2CodeRepository.delete(oAuth2AuthenticationCode);
-            return oAuth2AuthenticationCode.getAuthentication();
+        MongoOAuth2AuthorizationCode oAuth2AuthenticationCode = mongoTemplate.findAndRemove(
+                Query.query(Criteria.where("id").is(code)), MongoOAuth2AuthorizationCode.class);
+        if (oAuth2AuthenticationCode == null || oAuth2AuthenticationCode.getAuthentication() == null) {
+            return null;
+        }
+        // The expired documents are deleted by mongoDB in the background, so they may still exist for a while
+        if (oAuth2AuthenticationCode.getExpiration() != null && oAuth2AuthenticationCode.getExpiration().isBefore(Instant.now())) {
+            return null;
         }
-        return null;
+        return oAuth2AuthenticationCode.getAuthentication();
     }
 }
@@ -1,5 +1,6 @@
 package org.infinity.passport.config.oauth2;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.infinity.passport.domain.MongoOAuth2ClientDetails;
 import org.infinity.passport.repository.OAuth2ClientDetailsRepository;
@@ -10,22 +11,38 @@ import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 @Service
 @Slf4j
 public class MongoClientDetailsService implements ClientDetailsService, ClientRegistrationService {
 
-    private final PasswordEncoder               passwordEncoder;
-    private final OAuth2ClientDetailsRepository oAuth2ClientDetailsRepository;
+    public static final String SINGLE_FLIGHT_NAME = "client-details";
 
-    public MongoClientDetailsService(PasswordEncoder passwordEncoder, OAuth2ClientDetailsRepository oAuth2ClientDetailsRepository) {
+    private final PasswordEncoder                                          passwordEncoder;
+    private final OAuth2ClientDetailsRepository                            oAuth2ClientDetailsRepository;
+    private final ClientDetailsCache                                       clientDetailsCache;
+    private final ClientSecretVerificationCache                            clientSecretVerificationCache;
+    private final SingleFlight<String, Optional<MongoOAuth2ClientDetails>> clientDetailsLoads;
+
+    public MongoClientDetailsService(PasswordEncoder passwordEncoder, OAuth2ClientDetailsRepository oAuth2ClientDetailsRepository,
+                                     ClientDetailsCache clientDetailsCache,
+                                     ClientSecretVerificationCache clientSecretVerificationCache,
+                                     MeterRegistry meterRegistry) {
         this.passwordEncoder = passwordEncoder;
         this.oAuth2ClientDetailsRepository = oAuth2ClientDetailsRepository;
+        this.clientDetailsCache = clientDetailsCache;
+        this.clientSecretVerificationCache = clientSecretVerificationCache;
+        this.clientDetailsLoads = new SingleFlight<>(SINGLE_FLIGHT_NAME, meterRegistry);
     }
 
+    /**
+     * It is called several times per grant, so the client details are served from {@link ClientDetailsCache},
+     * and the concurrent cache misses of the same client share one load from the database.
+     */
     @Override
     public ClientDetails loadClientByClientId(String clientId) throws ClientRegistrationException {
-        return oAuth2ClientDetailsRepository.findById(clientId)
+        return clientDetailsCache.get(clientId, id -> clientDetailsLoads.execute(id, oAuth2ClientDetailsRepository::findById))
                 .orElseThrow(() -> new NoSuchClientException("No client found with id: " + clientId));
     }
 
@@ -48,8 +65,10 @@ public class MongoClientDetailsService implements ClientDetailsService, ClientRe
     public void updateClientSecret(String clientId, String secret) throws NoSuchClientException {
         MongoOAuth2ClientDetails mongoClientDetails = oAuth2ClientDetailsRepository.findById(clientId)
                 .orElseThrow(() -> new NoSuchClientException("No client found with id: " + clientId));
+        String oldClientSecret = mongoClientDetails.getClientSecret();
         mongoClientDetails.setClientSecret(passwordEncoder.encode(secret));
         oAuth2ClientDetailsRepository.save(mongoClientDetails);
+        clientSecretVerificationCache.evict(oldClientSecret);
     }
 
     @Override
@@ -57,6 +76,7 @@ public class MongoClientDetailsService implements ClientDetailsService, ClientRe
         MongoOAuth2ClientDetails mongoClientDetails = oAuth2ClientDetailsRepository.findById(clientId)
                 .orElseThrow(() -> new NoSuchClientException("No client found with id: " + clientId));
         oAuth2ClientDetailsRepository.delete(mongoClientDetails);
+        clientSecretVerificationCache.evict(mongoClientDetails.getClientSecret());
     }
 
     @Override
@@ -65,6 +85,7 @@ public class MongoClientDetailsService implements ClientDetailsService, ClientRe
     }
 
     public void saveClientDetails(MongoOAuth2ClientDetails mongoClientDetails, ClientDetails clientDetails) {
+        clientSecretVerificationCache.evict(mongoClientDetails.getClientSecret());
         mongoClientDetails.setClientId(clientDetails.getClientId());
         String clientSecret = clientDetails.getClientSecret() != null ? passwordEncoder.encode(clientDetails.getClientSecret()) : null;
         mongoClientDetails.setClientSecret(clientSecret);
@@ -0,0 +1,193 @@
+package org.infinity.passport.config.oauth2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.infinity.passport.domain.MongoOAuth2RefreshToken;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.common.*;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.security.oauth2.common.exceptions.InvalidScopeException;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.TokenRequest;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+import org.springframework.security.oauth2.provider.token.TokenEnhancer;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Token services of the mongo token format, which issue an access token with the get-or-create upsert of
+ * {@link MongoTokenStore#getOrStoreAccessToken} instead of looking up the existing token and storing it again.
+ * So a re-login costs one indexed round trip, and concurrent logins of the same authentication get the same token.
+ * <p>
+ * Refreshing reads the refresh token with its authentication in one query, or claims it atomically when refresh
+ * tokens are rotated, then swaps the access token. The latency of each step is recorded under {@link #REFRESH_METRIC_NAME}.
+ */
+public class MongoTokenServices extends DefaultTokenServices {
+
+    public static final String REFRESH_METRIC_NAME = "oauth2.token-refresh";
+
+    private final MongoTokenStore tokenStore;
+
+    private final MeterRegistry meterRegistry;
+
+    private TokenEnhancer accessTokenEnhancer;
+
+    private AuthenticationManager authenticationManager;
+
+    private boolean supportRefreshToken = false;
+
+    private boolean reuseRefreshToken = true;
+
+    public MongoTokenServices(MongoTokenStore tokenStore, MeterRegistry meterRegistry) {
+        this.tokenStore = tokenStore;
+        this.meterRegistry = meterRegistry;
+        setTokenStore(tokenStore);
+    }
+
+    @Override
+    public void setTokenEnhancer(TokenEnhancer accessTokenEnhancer) {
+        super.setTokenEnhancer(accessTokenEnhancer);
+        this.accessTokenEnhancer = accessTokenEnhancer;
+    }
+
+    @Override
+    public void setAuthenticationManager(AuthenticationManager authenticationManager) {
+        super.setAuthenticationManager(authenticationManager);
+        this.authenticationManager = authenticationManager;
+    }
+
+    @Override
+    public void setSupportRefreshToken(boolean supportRefreshToken) {
+        super.setSupportRefreshToken(supportRefreshToken);
+        this.supportRefreshToken = supportRefreshToken;
+    }
+
+    @Override
+    public void setReuseRefreshToken(boolean reuseRefreshToken) {
+        super.setReuseRefreshToken(reuseRefreshToken);
+        this.reuseRefreshToken = reuseRefreshToken;
+    }
+
+    @Override
+    public OAuth2AccessToken createAccessToken(OAuth2Authentication authentication) throws AuthenticationException {
+        OAuth2RefreshToken refreshToken = createRefreshToken(authentication.getOAuth2Request());
+        OAuth2AccessToken accessToken = createAccessToken(authentication, refreshToken);
+        OAuth2AccessToken issuedToken = tokenStore.getOrStoreAccessToken(accessToken, authentication);
+        if (issuedToken.getValue().equals(accessToken.getValue()) && refreshToken != null) {
+            // The new access token has been stored, otherwise the existing one is reused with its own refresh token
+            tokenStore.storeRefreshToken(refreshToken, authentication);
+        }
+        return issuedToken;
+    }
+
+    @Override
+    public OAuth2AccessToken refreshAccessToken(String refreshTokenValue, TokenRequest tokenRequest) throws AuthenticationException {
+        if (!supportRefreshToken) {
+            throw new InvalidGrantException("Invalid refresh token: " + refreshTokenValue);
+        }
+        // The rotated refresh token is claimed atomically, so that it can only be redeemed once
+        MongoOAuth2RefreshToken storedRefreshToken = record("read", () -> reuseRefreshToken
+                ? tokenStore.findRefreshToken(refreshTokenValue)
+                : tokenStore.claimRefreshToken(refreshTokenValue, tokenRequest.getClientId()))
+                .orElseThrow(() -> new InvalidGrantException("Invalid refresh token: " + refreshTokenValue));
+        OAuth2RefreshToken refreshToken = storedRefreshToken.getOAuth2RefreshToken();
+        OAuth2Authentication authentication = record("reload-user", () -> reloadUser(storedRefreshToken.getAuthentication()));
+        String clientId = authentication.getOAuth2Request().getClientId();
+        if (clientId == null || !clientId.equals(tokenRequest.getClientId())) {
+            throw new InvalidGrantException("Wrong client for this refresh token: " + refreshTokenValue);
+        }
+
+        record("revoke", () -> tokenStore.removeAccessTokenUsingRefreshToken(refreshToken));
+        if (isExpired(refreshToken)) {
+            if (reuseRefreshToken) {
+                tokenStore.removeRefreshToken(refreshToken);
+            }
+            throw new InvalidTokenException("Invalid refresh token (expired): " + refreshToken);
+        }
+
+        OAuth2Authentication refreshedAuthentication = createRefreshedAuthentication(authentication, tokenRequest);
+        OAuth2RefreshToken issuedRefreshToken = reuseRefreshToken ? refreshToken
+                : createRefreshToken(refreshedAuthentication.getOAuth2Request());
+        OAuth2AccessToken accessToken = createAccessToken(refreshedAuthentication, issuedRefreshToken);
+        // A concurrent login of the same authentication may have been issued a token meanwhile, which is returned
+        // instead of being revoked
+        OAuth2AccessToken issuedToken = record("issue", () -> tokenStore.getOrStoreAccessToken(accessToken, refreshedAuthentication));
+        if (!reuseRefreshToken && issuedRefreshToken != null && issuedToken.getValue().equals(accessToken.getValue())) {
+            record("rotate", () -> tokenStore.storeRefreshToken(issuedRefreshToken, refreshedAuthentication));
+        }
+        return issuedToken;
+    }
+
+    private OAuth2Authentication reloadUser(OAuth2Authentication authentication) {
+        if (authenticationManager == null || authentication.isClientOnly()) {
+            return authentication;
+        }
+        Authentication user = new PreAuthenticatedAuthenticationToken(authentication.getUserAuthentication(), "",
+                authentication.getAuthorities());
+        OAuth2Authentication reloaded = new OAuth2Authentication(authentication.getOAuth2Request(),
+                authenticationManager.authenticate(user));
+        reloaded.setDetails(authentication.getDetails());
+        return reloaded;
+    }
+
+    private OAuth2Authentication createRefreshedAuthentication(OAuth2Authentication authentication, TokenRequest request) {
+        Set<String> scope = request.getScope();
+        OAuth2Request clientAuth = authentication.getOAuth2Request().refresh(request);
+        if (scope != null && !scope.isEmpty()) {
+            Set<String> originalScope = clientAuth.getScope();
+            if (originalScope == null || !originalScope.containsAll(scope)) {
+                throw new InvalidScopeException("Unable to narrow the scope of the client authentication to " + scope + ".",
+                        originalScope);
+            }
+            clientAuth = clientAuth.narrowScope(scope);
+        }
+        return new OAuth2Authentication(clientAuth, authentication.getUserAuthentication());
+    }
+
+    private <T> T record(String step, Supplier<T> supplier) {
+        return stepTimer(step).record(supplier);
+    }
+
+    private void record(String step, Runnable runnable) {
+        stepTimer(step).record(runnable);
+    }
+
+    private Timer stepTimer(String step) {
+        return Timer.builder(REFRESH_METRIC_NAME)
+                .description("Latency of each step of refreshing an access token")
+                .tag("step", step)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private OAuth2RefreshToken createRefreshToken(OAuth2Request request) {
+        if (!isSupportRefreshToken(request)) {
+            return null;
+        }
+        int validitySeconds = getRefreshTokenValiditySeconds(request);
+        String value = UUID.randomUUID().toString();
+        if (validitySeconds > 0) {
+            return new DefaultExpiringOAuth2RefreshToken(value, new Date(System.currentTimeMillis() + validitySeconds * 1000L));
+        }
+        return new DefaultOAuth2RefreshToken(value);
+    }
+
+    private OAuth2AccessToken createAccessToken(OAuth2Authentication authentication, OAuth2RefreshToken refreshToken) {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+        int validitySeconds = getAccessTokenValiditySeconds(authentication.getOAuth2Request());
+        if (validitySeconds > 0) {
+            token.setExpiration(new Date(System.currentTimeMillis() + validitySeconds * 1000L));
+        }
+        token.setRefreshToken(refreshToken);
+        token.setScope(authentication.getOAuth2Request().getScope());
+        return accessTokenEnhancer != null ? accessTokenEnhancer.enhance(token, authentication) : token;
+    }
+}
@@ -1,36 +1,76 @@
 package org.infinity.passport.config.oauth2;
 
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.result.DeleteResult;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
 import org.infinity.passport.domain.MongoOAuth2AccessToken;
 import org.infinity.passport.domain.MongoOAuth2RefreshToken;
+import org.infinity.passport.dto.OAuth2AccessTokenSummaryDTO;
 import org.infinity.passport.repository.OAuth2AccessTokenRepository;
 import org.infinity.passport.repository.OAuth2RefreshTokenRepository;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.util.StreamUtils;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.OAuth2RefreshToken;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
 import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
-import org.springframework.security.oauth2.provider.token.TokenStore;
-import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * A MongoDB implementation of the TokenStore.
+ * A MongoDB implementation of the TokenStore, it is used when application.oauth2.token-store is mongo,
+ * and as the remote tier when it is tiered. See {@link org.infinity.passport.config.TokenStoreConfiguration}.
  */
-@Component
-public class MongoTokenStore implements TokenStore {
+public class MongoTokenStore implements BatchTokenStore {
+
+    public static final String REMOVED_METRIC_NAME = "oauth2.token-store.removed";
+
+    private static final int MAX_UPSERT_ATTEMPTS = 3;
 
     private final OAuth2AccessTokenRepository oAuth2AccessTokenRepository;
 
     private final OAuth2RefreshTokenRepository oAuth2RefreshTokenRepository;
 
+    private final AccessTokenNearCache accessTokenNearCache;
+
+    private final AccessTokenLastAccessBuffer accessTokenLastAccessBuffer;
+
+    private final TokenRevocationBroadcaster tokenRevocationBroadcaster;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final MeterRegistry meterRegistry;
+
     private final AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
 
-    public MongoTokenStore(OAuth2AccessTokenRepository oAuth2AccessTokenRepository, OAuth2RefreshTokenRepository oAuth2RefreshTokenRepository) {
+    public MongoTokenStore(OAuth2AccessTokenRepository oAuth2AccessTokenRepository,
+                           OAuth2RefreshTokenRepository oAuth2RefreshTokenRepository,
+                           AccessTokenNearCache accessTokenNearCache,
+                           AccessTokenLastAccessBuffer accessTokenLastAccessBuffer,
+                           TokenRevocationBroadcaster tokenRevocationBroadcaster,
+                           MongoTemplate mongoTemplate,
+                           MeterRegistry meterRegistry) {
         this.oAuth2AccessTokenRepository = oAuth2AccessTokenRepository;
         this.oAuth2RefreshTokenRepository = oAuth2RefreshTokenRepository;
+        this.accessTokenNearCache = accessTokenNearCache;
+        this.accessTokenLastAccessBuffer = accessTokenLastAccessBuffer;
+        this.tokenRevocationBroadcaster = tokenRevocationBroadcaster;
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
     }
 
     @Override
@@ -40,7 +80,28 @@ public class MongoTokenStore implements TokenStore {
 
     @Override
     public OAuth2Authentication readAuthentication(String tokenValue) {
-        return oAuth2AccessTokenRepository.findById(tokenValue).map(MongoOAuth2AccessToken::getAuthentication).orElse(null);
+        OAuth2Authentication authentication = findAccessToken(tokenValue).map(MongoOAuth2AccessToken::getAuthentication).orElse(null);
+        if (authentication != null) {
+            accessTokenLastAccessBuffer.touch(tokenValue);
+        }
+        return authentication;
+    }
+
+    /**
+     * Read the authentications with a single $in query on the cache misses.
+     *
+     * @param tokenValues access token values
+     * @return authentications keyed by the access token value
+     */
+    @Override
+    public Map<String, OAuth2Authentication> readAuthentications(Collection<String> tokenValues) {
+        Map<String, OAuth2Authentication> authentications = new LinkedHashMap<>(tokenValues.size());
+        accessTokenNearCache.getAll(tokenValues, oAuth2AccessTokenRepository::findAllById)
+                .forEach((tokenValue, token) -> {
+                    authentications.put(tokenValue, token.getAuthentication());
+                    accessTokenLastAccessBuffer.touch(tokenValue);
+                });
+        return authentications;
     }
 
     @Override
@@ -48,16 +109,80 @@ public class MongoTokenStore implements TokenStore {
         MongoOAuth2AccessToken oAuth2AuthenticationAccessToken = new MongoOAuth2AccessToken(token, authentication,
                 authenticationKeyGenerator.extractKey(authentication));
         oAuth2AccessTokenRepository.save(oAuth2AuthenticationAccessToken);
+        accessTokenNearCache.put(oAuth2AuthenticationAccessToken);
+    }
+
+    /**
+     * Get the access token of the authentication or store the new one in a single atomic upsert keyed on the
+     * authentication ID, instead of a lookup followed by a save. The authentication of an existing token is refreshed
+     * in the same round trip. An expired existing token is removed and the upsert is retried.
+     *
+     * @param token          new access token which is stored if the authentication has none
+     * @param authentication authentication
+     * @return the existing unexpired access token or the new one
+     */
+    public OAuth2AccessToken getOrStoreAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        MongoOAuth2AccessToken candidate = new MongoOAuth2AccessToken(token, authentication,
+                authenticationKeyGenerator.extractKey(authentication));
+        candidate.setCreatedTime(Instant.now());
+        Document document = new Document();
+        mongoTemplate.getConverter().write(candidate, document);
+        Update update = new Update();
+        document.forEach((key, value) -> {
+            if ("authentication".equals(key)) {
+                update.set(key, value);
+            } else {
+                update.setOnInsert(key, value);
+            }
+        });
+        Query query = Query.query(Criteria.where("authenticationId").is(candidate.getAuthenticationId()));
+
+        for (int attempt = 1; ; attempt++) {
+            MongoOAuth2AccessToken issued;
+            try {
+                issued = mongoTemplate.findAndModify(query, update,
+                        FindAndModifyOptions.options().upsert(true).returnNew(true), MongoOAuth2AccessToken.class);
+            } catch (DuplicateKeyException e) {
+                // A concurrent upsert of the same authentication has inserted first, the retry matches its token
+                if (attempt >= MAX_UPSERT_ATTEMPTS) {
+                    throw e;
+                }
+                continue;
+            }
+            OAuth2AccessToken issuedToken = Objects.requireNonNull(issued).getOAuth2AccessToken();
+            if (issuedToken.isExpired() && !issued.getId().equals(candidate.getId()) && attempt < MAX_UPSERT_ATTEMPTS) {
+                if (issuedToken.getRefreshToken() != null) {
+                    removeRefreshToken(issuedToken.getRefreshToken());
+                }
+                removeAccessToken(issuedToken);
+                continue;
+            }
+            accessTokenNearCache.put(issued);
+            return issuedToken;
+        }
     }
 
     @Override
     public OAuth2AccessToken readAccessToken(String tokenValue) {
-        return oAuth2AccessTokenRepository.findById(tokenValue).map(MongoOAuth2AccessToken::getOAuth2AccessToken).orElse(null);
+        return findAccessToken(tokenValue).map(MongoOAuth2AccessToken::getOAuth2AccessToken).orElse(null);
+    }
+
+    /**
+     * Find the access token with its authentication through the near cache
+     *
+     * @param tokenValue access token value
+     * @return access token
+     */
+    public Optional<MongoOAuth2AccessToken> findAccessToken(String tokenValue) {
+        return accessTokenNearCache.get(tokenValue, oAuth2AccessTokenRepository::findById);
     }
 
     @Override
     public void removeAccessToken(OAuth2AccessToken token) {
-        oAuth2AccessTokenRepository.findById(token.getValue()).ifPresent(oAuth2AccessTokenRepository::delete);
+        DeleteResult result = mongoTemplate.remove(Query.query(Criteria.where("_id").is(token.getValue())),
+                MongoOAuth2AccessToken.class);
+        recordRemoved("removeAccessToken", result.getDeletedCount());
+        tokenRevocationBroadcaster.revoke(token.getValue());
     }
 
     @Override
@@ -75,19 +200,58 @@ public class MongoTokenStore implements TokenStore {
         return oAuth2RefreshTokenRepository.findById(token.getValue()).map(MongoOAuth2RefreshToken::getAuthentication).orElse(null);
     }
 
+    /**
+     * Read the refresh token together with its authentication in one round trip.
+     *
+     * @param tokenValue refresh token value
+     * @return refresh token
+     */
+    public Optional<MongoOAuth2RefreshToken> findRefreshToken(String tokenValue) {
+        return oAuth2RefreshTokenRepository.findById(tokenValue);
+    }
+
+    /**
+     * Atomically remove and return the refresh token issued to the client, so that only one of the concurrent
+     * refreshes with the same refresh token can rotate it.
+     *
+     * @param tokenValue refresh token value
+     * @param clientId   client ID of the token request
+     * @return the removed refresh token, or empty if it does not exist or is issued to another client
+     */
+    public Optional<MongoOAuth2RefreshToken> claimRefreshToken(String tokenValue, String clientId) {
+        MongoOAuth2RefreshToken claimed = mongoTemplate.findAndRemove(
+                Query.query(Criteria.where("_id").is(tokenValue).and("clientId").is(clientId)), MongoOAuth2RefreshToken.class);
+        recordRemoved("claimRefreshToken", claimed != null ? 1 : 0);
+        return Optional.ofNullable(claimed);
+    }
+
     @Override
     public void removeRefreshToken(OAuth2RefreshToken token) {
-        oAuth2RefreshTokenRepository.findById(token.getValue()).ifPresent(oAuth2RefreshTokenRepository::delete);
+        DeleteResult result = mongoTemplate.remove(Query.query(Criteria.where("_id").is(token.getValue())),
+                MongoOAuth2RefreshToken.class);
+        recordRemoved("removeRefreshToken", result.getDeletedCount());
     }
 
     @Override
     public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
-        MongoOAuth2AccessToken accessToken = oAuth2AccessTokenRepository.findByRefreshToken(refreshToken.getValue());
-        if (accessToken != null) {
-            oAuth2AccessTokenRepository.delete(accessToken);
+        // Delete in one round trip and only return the id which is needed for the revocation
+        Document deleted = mongoTemplate.getCollection(mongoTemplate.getCollectionName(MongoOAuth2AccessToken.class))
+                .findOneAndDelete(Filters.eq("refreshToken", refreshToken.getValue()),
+                        new FindOneAndDeleteOptions().projection(Projections.include("_id")));
+        recordRemoved("removeAccessTokenUsingRefreshToken", deleted != null ? 1 : 0);
+        if (deleted != null) {
+            tokenRevocationBroadcaster.revoke(String.valueOf(deleted.get("_id")));
         }
     }
 
+    private void recordRemoved(String operation, long count) {
+        DistributionSummary.builder(REMOVED_METRIC_NAME)
+                .description("Number of documents removed by each token store removal")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .record(count);
+    }
+
     @Override
     public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
         MongoOAuth2AccessToken token = oAuth2AccessTokenRepository.findByAuthenticationId(authenticationKeyGenerator.extractKey(authentication));
@@ -96,21 +260,35 @@ public class MongoTokenStore implements TokenStore {
 
     @Override
     public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
-        List<MongoOAuth2AccessToken> tokens = oAuth2AccessTokenRepository.findByClientId(clientId);
-        return extractAccessTokens(tokens);
+        try (Stream<OAuth2AccessToken> tokens = streamTokensByClientId(clientId)) {
+            return tokens.collect(Collectors.toList());
+        }
     }
 
     @Override
     public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
-        List<MongoOAuth2AccessToken> tokens = oAuth2AccessTokenRepository.findByClientIdAndUserName(clientId, userName);
-        return extractAccessTokens(tokens);
+        try (Stream<OAuth2AccessToken> tokens = streamTokens(Criteria.where("clientId").is(clientId).and("userName").is(userName))) {
+            return tokens.collect(Collectors.toList());
+        }
     }
 
-    private Collection<OAuth2AccessToken> extractAccessTokens(List<MongoOAuth2AccessToken> tokens) {
-        List<OAuth2AccessToken> accessTokens = new ArrayList<>();
-        for (MongoOAuth2AccessToken token : tokens) {
-            accessTokens.add(token.getOAuth2AccessToken());
-        }
-        return accessTokens;
+    /**
+     * Stream the access tokens of the client from a database cursor without materializing them all,
+     * the stream must be closed after use to release the cursor.
+     *
+     * @param clientId client ID
+     * @return access token stream
+     */
+    public Stream<OAuth2AccessToken> streamTokensByClientId(String clientId) {
+        return streamTokens(Criteria.where("clientId").is(clientId));
+    }
+
+    private Stream<OAuth2AccessToken> streamTokens(Criteria criteria) {
+        // Only fetch the access token part instead of the whole document with the embedded authentication
+        Query query = Query.query(criteria);
+        query.fields().include("oAuth2AccessToken");
+        CloseableIterator<OAuth2AccessTokenSummaryDTO> tokens = mongoTemplate.stream(query, OAuth2AccessTokenSummaryDTO.class,
+                mongoTemplate.getCollectionName(MongoOAuth2AccessToken.class));
+        return StreamUtils.createStreamFromIterator(tokens).map(OAuth2AccessTokenSummaryDTO::getOAuth2AccessToken);
     }
 }
@@ -0,0 +1,19 @@
+package org.infinity.passport.config.oauth2;
+
+import org.bson.types.Binary;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+/**
+ * Deserialize back into an OAuth2Authentication Object from the compact binary field,
+ * the nested documents written before are still read by {@link OAuth2AuthenticationReadConverter}.
+ */
+@ReadingConverter
+public class OAuth2AuthenticationBinaryReadConverter implements Converter<Binary, OAuth2Authentication> {
+
+    @Override
+    public OAuth2Authentication convert(Binary source) {
+        return OAuth2AuthenticationCodec.decode(source.getData());
+    }
+}
@@ -0,0 +1,296 @@
+package org.infinity.passport.config.oauth2;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Versioned compact binary codec of {@link OAuth2Authentication}, which is stored as a single binary field instead of
+ * a nested document. The first byte is always the format version, so that the format can evolve without migrating
+ * the stored tokens.
+ * <p>
+ * Principals and extension values other than the common ones are stored with Java serialization. They are only read
+ * back with {@link AllowListObjectInputStream}, which rejects every class outside of the JDK value types, Spring
+ * Security and this application, so that a document written to the token collections can not instantiate arbitrary
+ * gadget classes.
+ */
+public abstract class OAuth2AuthenticationCodec {
+
+    public static final byte VERSION_1 = 1;
+
+    private static final byte PRINCIPAL_NONE          = 0;
+    private static final byte PRINCIPAL_SECURITY_USER = 1;
+    private static final byte PRINCIPAL_STRING        = 2;
+    private static final byte PRINCIPAL_SERIALIZED    = 3;
+
+    private static final byte VALUE_STRING     = 1;
+    private static final byte VALUE_SERIALIZED = 2;
+
+    public static byte[] encode(OAuth2Authentication authentication) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION_1);
+            writeRequest(out, authentication.getOAuth2Request());
+            writeUserAuthentication(out, authentication.getUserAuthentication());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode OAuth2 authentication", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static OAuth2Authentication decode(byte[] source) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(source))) {
+            byte version = in.readByte();
+            if (version != VERSION_1) {
+                throw new IllegalStateException("Unsupported OAuth2 authentication codec version: " + version);
+            }
+            OAuth2Request oAuth2Request = readRequest(in);
+            Authentication userAuthentication = readUserAuthentication(in);
+            return new OAuth2Authentication(oAuth2Request, userAuthentication);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode OAuth2 authentication", e);
+        }
+    }
+
+    private static void writeRequest(DataOutputStream out, OAuth2Request request) throws IOException {
+        writeStringMap(out, request.getRequestParameters());
+        writeNullableString(out, request.getClientId());
+        writeAuthorities(out, request.getAuthorities());
+        out.writeBoolean(request.isApproved());
+        writeStrings(out, request.getScope());
+        writeStrings(out, request.getResourceIds());
+        writeNullableString(out, request.getRedirectUri());
+        writeStrings(out, request.getResponseTypes());
+        writeExtensions(out, request.getExtensions());
+    }
+
+    private static OAuth2Request readRequest(DataInputStream in) throws IOException {
+        Map<String, String> requestParameters = readStringMap(in);
+        String clientId = readNullableString(in);
+        Collection<GrantedAuthority> authorities = readAuthorities(in);
+        boolean approved = in.readBoolean();
+        Set<String> scope = readStrings(in);
+        Set<String> resourceIds = readStrings(in);
+        String redirectUri = readNullableString(in);
+        Set<String> responseTypes = readStrings(in);
+        Map<String, Serializable> extensions = readExtensions(in);
+        return new OAuth2Request(requestParameters, clientId, authorities, approved, scope, resourceIds,
+                redirectUri, responseTypes, extensions);
+    }
+
+    private static void writeUserAuthentication(DataOutputStream out, Authentication userAuthentication) throws IOException {
+        if (userAuthentication instanceof OAuth2Authentication) {
+            // For nested userAuthentication in OAuth2Authentication
+            userAuthentication = ((OAuth2Authentication) userAuthentication).getUserAuthentication();
+        }
+        Object principal = userAuthentication != null ? userAuthentication.getPrincipal() : null;
+        if (principal instanceof SecurityUser) {
+            SecurityUser user = (SecurityUser) principal;
+            out.writeByte(PRINCIPAL_SECURITY_USER);
+            writeNullableString(out, user.getUserId());
+            writeNullableString(out, user.getUsername());
+            out.writeBoolean(user.isEnabled());
+            out.writeBoolean(user.isAccountNonExpired());
+            out.writeBoolean(user.isCredentialsNonExpired());
+            out.writeBoolean(user.isAccountNonLocked());
+            writeAuthorities(out, user.getAuthorities());
+        } else if (principal instanceof String) {
+            out.writeByte(PRINCIPAL_STRING);
+            out.writeUTF((String) principal);
+        } else if (principal instanceof Serializable) {
+            out.writeByte(PRINCIPAL_SERIALIZED);
+            writeBytes(out, SerializationUtils.serialize((Serializable) principal));
+        } else {
+            out.writeByte(PRINCIPAL_NONE);
+            return;
+        }
+        writeAuthorities(out, userAuthentication.getAuthorities());
+    }
+
+    private static Authentication readUserAuthentication(DataInputStream in) throws IOException {
+        Object principal;
+        byte principalType = in.readByte();
+        switch (principalType) {
+            case PRINCIPAL_NONE:
+                return null;
+            case PRINCIPAL_SECURITY_USER:
+                principal = new SecurityUser(readNullableString(in), readNullableString(in), "", in.readBoolean(),
+                        in.readBoolean(), in.readBoolean(), in.readBoolean(), readAuthorities(in));
+                break;
+            case PRINCIPAL_STRING:
+                principal = in.readUTF();
+                break;
+            case PRINCIPAL_SERIALIZED:
+                principal = deserialize(readBytes(in));
+                break;
+            default:
+                throw new IllegalStateException("Unsupported principal type: " + principalType);
+        }
+        return new UsernamePasswordAuthenticationToken(principal, null, readAuthorities(in));
+    }
+
+    private static void writeAuthorities(DataOutputStream out, Collection<? extends GrantedAuthority> authorities) throws IOException {
+        out.writeShort(authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            out.writeUTF(authority.getAuthority());
+        }
+    }
+
+    private static Collection<GrantedAuthority> readAuthorities(DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        Set<String> authorityNames = new HashSet<>(size);
+        for (int i = 0; i < size; i++) {
+            authorityNames.add(in.readUTF());
+        }
+        return GrantedAuthorityRegistry.setOf(authorityNames);
+    }
+
+    static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        if (values == null) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    static Set<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        Set<String> values = new HashSet<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    private static void writeStringMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeShort(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeNullableString(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readStringMap(DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        Map<String, String> map = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), readNullableString(in));
+        }
+        return map;
+    }
+
+    private static void writeExtensions(DataOutputStream out, Map<String, Serializable> extensions) throws IOException {
+        out.writeShort(extensions.size());
+        for (Map.Entry<String, Serializable> entry : extensions.entrySet()) {
+            out.writeUTF(entry.getKey());
+            if (entry.getValue() instanceof String) {
+                out.writeByte(VALUE_STRING);
+                out.writeUTF((String) entry.getValue());
+            } else {
+                out.writeByte(VALUE_SERIALIZED);
+                writeBytes(out, SerializationUtils.serialize(entry.getValue()));
+            }
+        }
+    }
+
+    private static Map<String, Serializable> readExtensions(DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        Map<String, Serializable> extensions = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            Serializable value;
+            if (in.readByte() == VALUE_STRING) {
+                value = in.readUTF();
+            } else {
+                value = (Serializable) deserialize(readBytes(in));
+            }
+            extensions.put(key, value);
+        }
+        return extensions;
+    }
+
+    static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] value = new byte[in.readInt()];
+        in.readFully(value);
+        return value;
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new AllowListObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+
+    /**
+     * Object input stream which only resolves the allowed classes and no proxy classes.
+     */
+    static class AllowListObjectInputStream extends ObjectInputStream {
+
+        private static final Set<String>  ALLOWED_CLASSES          = new HashSet<>(Arrays.asList(
+                "java.lang.String", "java.lang.Boolean", "java.lang.Character", "java.lang.Number", "java.lang.Byte",
+                "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+                "java.lang.Enum", "java.math.BigInteger", "java.math.BigDecimal", "java.net.URI", "java.net.URL"));
+        private static final List<String> ALLOWED_PACKAGE_PREFIXES = Arrays.asList("java.util.", "java.time.",
+                "org.springframework.security.", "org.infinity.passport.");
+
+        AllowListObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Class is not allowed to be deserialized");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException(Arrays.toString(interfaces), "Proxy class is not allowed to be deserialized");
+        }
+
+        static boolean isAllowed(String className) {
+            // Arrays, e.g. [B or [Ljava.lang.String;
+            String componentName = className.replaceFirst("^\\[+", "");
+            if (className.startsWith("[") && componentName.length() == 1) {
+                return true;
+            }
+            if (componentName.startsWith("L") && componentName.endsWith(";")) {
+                componentName = componentName.substring(1, componentName.length() - 1);
+            }
+            if (ALLOWED_CLASSES.contains(componentName)) {
+                return true;
+            }
+            String name = componentName;
+            return ALLOWED_PACKAGE_PREFIXES.stream().anyMatch(name::startsWith);
+        }
+    }
+}
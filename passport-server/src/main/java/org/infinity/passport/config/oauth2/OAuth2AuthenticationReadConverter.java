@@ -5,7 +5,6 @@ import org.springframework.core.convert.converter.Converter;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.OAuth2Request;
 
@@ -73,10 +72,10 @@ public class OAuth2AuthenticationReadConverter implements Converter<Document, OA
     }
 
     private Collection<GrantedAuthority> getAuthorities(List<Map<String, String>> authorities) {
-        Set<GrantedAuthority> grantedAuthorities = new HashSet<>(authorities.size());
+        Set<String> authorityNames = new HashSet<>(authorities.size());
         for (Map<String, String> authority : authorities) {
-            grantedAuthorities.add(new SimpleGrantedAuthority(authority.get("role")));
+            authorityNames.add(authority.get("role"));
         }
-        return grantedAuthorities;
+        return GrantedAuthorityRegistry.setOf(authorityNames);
     }
 }
@@ -0,0 +1,18 @@
+package org.infinity.passport.config.oauth2;
+
+import org.bson.types.Binary;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+/**
+ * Serialize an OAuth2Authentication Object into a single compact binary field instead of a nested document.
+ */
+@WritingConverter
+public class OAuth2AuthenticationWriteConverter implements Converter<OAuth2Authentication, Binary> {
+
+    @Override
+    public Binary convert(OAuth2Authentication source) {
+        return new Binary(OAuth2AuthenticationCodec.encode(source));
+    }
+}
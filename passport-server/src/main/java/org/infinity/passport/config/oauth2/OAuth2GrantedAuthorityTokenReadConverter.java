@@ -3,7 +3,6 @@ package org.infinity.passport.config.oauth2;
 import org.bson.Document;
 import org.springframework.core.convert.converter.Converter;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
 /**
  * Deserialize back into an GrantedAuthority Object made necessary because
@@ -13,6 +12,6 @@ public class OAuth2GrantedAuthorityTokenReadConverter implements Converter<Docum
 
     @Override
     public GrantedAuthority convert(Document source) {
-        return new SimpleGrantedAuthority((String) source.get("role"));
+        return GrantedAuthorityRegistry.valueOf((String) source.get("role"));
     }
 }
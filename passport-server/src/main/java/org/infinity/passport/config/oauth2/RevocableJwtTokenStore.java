@@ -0,0 +1,136 @@
+package org.infinity.passport.config.oauth2;
+
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.domain.RevokedJwtToken;
+import org.infinity.passport.event.AccessTokenRevokedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.store.JwtTokenStore;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Self-contained signed token store, the validation of a token is pure CPU work.
+ * Revoked tokens are persisted in a regular collection until they expire, so that no revocation is lost however
+ * many tokens are revoked. They are remembered in process as well, loaded at startup and kept up to date by
+ * {@link TokenRevocationBroadcaster}, and forgotten once expired since an expired token is rejected anyway.
+ */
+@Slf4j
+public class RevocableJwtTokenStore extends JwtTokenStore implements BatchTokenStore {
+
+    private final MongoTemplate              mongoTemplate;
+    private final TokenRevocationBroadcaster tokenRevocationBroadcaster;
+    private final long                       revocationRetentionSeconds;
+    /**
+     * Expiration time in milliseconds keyed by the hash of the revoked token value
+     */
+    private final Map<String, Long>          revokedTokens = new ConcurrentHashMap<>();
+
+    public RevocableJwtTokenStore(JwtAccessTokenConverter jwtAccessTokenConverter,
+                                  MongoTemplate mongoTemplate,
+                                  TokenRevocationBroadcaster tokenRevocationBroadcaster,
+                                  ApplicationProperties applicationProperties) {
+        super(jwtAccessTokenConverter);
+        this.mongoTemplate = mongoTemplate;
+        this.tokenRevocationBroadcaster = tokenRevocationBroadcaster;
+        this.revocationRetentionSeconds = applicationProperties.getOauth2().getJwt().getRevocationRetentionSeconds();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadRevokedTokens() {
+        Query query = Query.query(Criteria.where("expiresAt").gt(Instant.now()));
+        mongoTemplate.find(query, RevokedJwtToken.class)
+                .forEach(revocation -> revokedTokens.put(revocation.getId(), revocation.getExpiresAt().toEpochMilli()));
+        log.info("Loaded {} revoked tokens", revokedTokens.size());
+    }
+
+    /**
+     * Remember a token revoked on any node, the expiration of a token revoked on another node is read from its
+     * persisted revocation.
+     *
+     * @param event revocation event
+     */
+    @EventListener
+    public void accessTokenRevokedEvent(AccessTokenRevokedEvent event) {
+        String id = hash(event.getTokenValue());
+        if (revokedTokens.containsKey(id)) {
+            return;
+        }
+        RevokedJwtToken revocation = mongoTemplate.findById(id, RevokedJwtToken.class);
+        revokedTokens.put(id, revocation != null ? revocation.getExpiresAt().toEpochMilli()
+                : System.currentTimeMillis() + revocationRetentionSeconds * 1000);
+    }
+
+    /**
+     * Forget the revoked tokens which have expired, MongoDB removes their persisted revocations by a TTL index.
+     */
+    @Scheduled(fixedDelayString = "${application.oauth2.jwt.purge-interval-millis:60000}")
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+        return isRevoked(tokenValue) ? null : super.readAccessToken(tokenValue);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(String tokenValue) {
+        return isRevoked(tokenValue) ? null : super.readAuthentication(tokenValue);
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+        revoke(token.getValue(), token.getExpiration());
+    }
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+        return isRevoked(tokenValue) ? null : super.readRefreshToken(tokenValue);
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+        revoke(token.getValue(), token instanceof ExpiringOAuth2RefreshToken
+                ? ((ExpiringOAuth2RefreshToken) token).getExpiration() : null);
+    }
+
+    /**
+     * Persist the revocation before broadcasting it, so that every node is able to read its expiration.
+     *
+     * @param tokenValue token value
+     * @param expiration expiration of the token, null if it never expires
+     */
+    private void revoke(String tokenValue, Date expiration) {
+        Instant expiresAt = expiration != null ? expiration.toInstant()
+                : Instant.now().plusSeconds(revocationRetentionSeconds);
+        RevokedJwtToken revocation = new RevokedJwtToken(hash(tokenValue), expiresAt);
+        mongoTemplate.save(revocation);
+        revokedTokens.put(revocation.getId(), expiresAt.toEpochMilli());
+        tokenRevocationBroadcaster.revoke(tokenValue);
+    }
+
+    private boolean isRevoked(String tokenValue) {
+        return revokedTokens.containsKey(hash(tokenValue));
+    }
+
+    private static String hash(String tokenValue) {
+        return Hashing.sha256().hashString(tokenValue, StandardCharsets.UTF_8).toString();
+    }
+}
@@ -0,0 +1,38 @@
+package org.infinity.passport.config.oauth2;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.provider.token.DefaultUserAuthenticationConverter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Embeds {@link SecurityUser#getUserId()} into the token claims and restores the {@link SecurityUser} principal
+ * from them, so that a self-contained token carries the same principal as the one stored in MongoDB.
+ */
+public class SecurityUserAuthenticationConverter extends DefaultUserAuthenticationConverter {
+
+    public static final String USER_ID = "user_id";
+
+    @Override
+    public Map<String, ?> convertUserAuthentication(Authentication authentication) {
+        Map<String, Object> response = new LinkedHashMap<>(super.convertUserAuthentication(authentication));
+        if (authentication.getPrincipal() instanceof SecurityUser) {
+            response.put(USER_ID, ((SecurityUser) authentication.getPrincipal()).getUserId());
+        }
+        return response;
+    }
+
+    @Override
+    public Authentication extractAuthentication(Map<String, ?> map) {
+        Authentication authentication = super.extractAuthentication(map);
+        if (authentication == null || !map.containsKey(USER_ID)) {
+            return authentication;
+        }
+        SecurityUser principal = new SecurityUser((String) map.get(USER_ID), authentication.getName(), "",
+                authentication.getAuthorities());
+        return new UsernamePasswordAuthenticationToken(principal, authentication.getCredentials(),
+                authentication.getAuthorities());
+    }
+}
@@ -0,0 +1,89 @@
+package org.infinity.passport.config.oauth2;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Coalesces the concurrent loads of the same key into one, the first caller runs the loader and the others wait for
+ * and share its result or exception. Nothing is cached after the load completes.
+ * Executed and collapsed calls and the number of loads in flight are exported to the meter registry under the name
+ * {@link #METRIC_NAME} tagged with the name of the single flight.
+ *
+ * @param <K> key type
+ * @param <V> value type, it must be safe to share between the callers
+ */
+public class SingleFlight<K, V> {
+
+    public static final String METRIC_NAME = "oauth2.single-flight";
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter                                executedCounter;
+    private final Counter                                collapsedCounter;
+
+    public SingleFlight(String name, MeterRegistry meterRegistry) {
+        this.executedCounter = Counter.builder(METRIC_NAME + ".calls")
+                .description("Number of calls which ran the loader or waited for the load in flight")
+                .tag("name", name)
+                .tag("result", "executed")
+                .register(meterRegistry);
+        this.collapsedCounter = Counter.builder(METRIC_NAME + ".calls")
+                .description("Number of calls which ran the loader or waited for the load in flight")
+                .tag("name", name)
+                .tag("result", "collapsed")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_NAME + ".in-flight", inFlight, Map::size)
+                .description("Number of loads in flight")
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Load the value of the key, or wait for the load of the same key which is already in flight.
+     *
+     * @param key    key
+     * @param loader loader
+     * @return value
+     */
+    public V execute(K key, Function<K, V> loader) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            collapsedCounter.increment();
+            return join(existing);
+        }
+        executedCounter.increment();
+        try {
+            V value = loader.apply(key);
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Rethrow the exception of the loader as is, e.g. UsernameNotFoundException
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.infinity.passport.config.oauth2;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+
+/**
+ * OAuth2 error returned by the token endpoint when the server is too busy to handle the request, refer to
+ * https://tools.ietf.org/html/rfc6749#section-4.1.2.1
+ */
+public class TemporarilyUnavailableException extends OAuth2Exception {
+
+    private static final long serialVersionUID = 6305726427493962117L;
+
+    public TemporarilyUnavailableException(String msg, Throwable t) {
+        super(msg, t);
+    }
+
+    @Override
+    public String getOAuth2ErrorCode() {
+        return "temporarily_unavailable";
+    }
+
+    @Override
+    public int getHttpErrorCode() {
+        return HttpStatus.SERVICE_UNAVAILABLE.value();
+    }
+}
@@ -0,0 +1,152 @@
+package org.infinity.passport.config.oauth2;
+
+import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.infinity.passport.event.AccessTokenRevokedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+import java.util.*;
+
+/**
+ * Two-tier token store, every access token is persisted by the {@link MongoTokenStore} and kept in the compact
+ * {@link LocalTokenStore} of the nodes which issued or read it, so that validating a live token is served in process
+ * for its whole lifetime. Refresh tokens only live in MongoDB, because they are rarely read and their removals are not
+ * broadcast. Access token revocations on any node evict the local tier through the {@link TokenRevocationBroadcaster}.
+ */
+public class TieredTokenStore implements BatchTokenStore {
+
+    private final LocalTokenStore localTokenStore;
+
+    private final MongoTokenStore mongoTokenStore;
+
+    private final AccessTokenLastAccessBuffer accessTokenLastAccessBuffer;
+
+    public TieredTokenStore(LocalTokenStore localTokenStore,
+                            MongoTokenStore mongoTokenStore,
+                            AccessTokenLastAccessBuffer accessTokenLastAccessBuffer) {
+        this.localTokenStore = localTokenStore;
+        this.mongoTokenStore = mongoTokenStore;
+        this.accessTokenLastAccessBuffer = accessTokenLastAccessBuffer;
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+        return readAuthentication(token.getValue());
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(String tokenValue) {
+        OAuth2Authentication authentication = localTokenStore.readAuthentication(tokenValue);
+        if (authentication == null) {
+            authentication = loadAccessToken(tokenValue).map(MongoOAuth2AccessToken::getAuthentication).orElse(null);
+        }
+        if (authentication != null) {
+            accessTokenLastAccessBuffer.touch(tokenValue);
+        }
+        return authentication;
+    }
+
+    /**
+     * Read the authentications from the local tier, and the misses with a single query.
+     *
+     * @param tokenValues access token values
+     * @return authentications keyed by the access token value
+     */
+    @Override
+    public Map<String, OAuth2Authentication> readAuthentications(Collection<String> tokenValues) {
+        Map<String, OAuth2Authentication> authentications = new LinkedHashMap<>(tokenValues.size());
+        List<String> misses = new ArrayList<>();
+        for (String tokenValue : tokenValues) {
+            OAuth2Authentication authentication = localTokenStore.readAuthentication(tokenValue);
+            if (authentication != null) {
+                authentications.put(tokenValue, authentication);
+                accessTokenLastAccessBuffer.touch(tokenValue);
+            } else {
+                misses.add(tokenValue);
+            }
+        }
+        if (!misses.isEmpty()) {
+            authentications.putAll(mongoTokenStore.readAuthentications(misses));
+        }
+        return authentications;
+    }
+
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        mongoTokenStore.storeAccessToken(token, authentication);
+        localTokenStore.storeAccessToken(token, authentication);
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+        OAuth2AccessToken token = localTokenStore.readAccessToken(tokenValue);
+        return token != null ? token : loadAccessToken(tokenValue).map(MongoOAuth2AccessToken::getOAuth2AccessToken).orElse(null);
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+        localTokenStore.removeAccessToken(token);
+        mongoTokenStore.removeAccessToken(token);
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+        mongoTokenStore.storeRefreshToken(refreshToken, authentication);
+    }
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+        return mongoTokenStore.readRefreshToken(tokenValue);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+        return mongoTokenStore.readAuthenticationForRefreshToken(token);
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+        mongoTokenStore.removeRefreshToken(token);
+    }
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+        localTokenStore.removeAccessTokenUsingRefreshToken(refreshToken);
+        mongoTokenStore.removeAccessTokenUsingRefreshToken(refreshToken);
+    }
+
+    @Override
+    public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+        OAuth2AccessToken token = localTokenStore.getAccessToken(authentication);
+        return token != null ? token : mongoTokenStore.getAccessToken(authentication);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+        return mongoTokenStore.findTokensByClientIdAndUserName(clientId, userName);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+        return mongoTokenStore.findTokensByClientId(clientId);
+    }
+
+    @Scheduled(fixedDelayString = "${application.oauth2.local-token-store.purge-interval-millis:60000}")
+    public void purgeExpired() {
+        localTokenStore.purgeExpired();
+    }
+
+    @EventListener
+    public void accessTokenRevokedEvent(AccessTokenRevokedEvent event) {
+        localTokenStore.removeAccessToken(event.getTokenValue());
+    }
+
+    private Optional<MongoOAuth2AccessToken> loadAccessToken(String tokenValue) {
+        Optional<MongoOAuth2AccessToken> token = mongoTokenStore.findAccessToken(tokenValue);
+        token.ifPresent(loaded -> localTokenStore.storeAccessToken(loaded.getOAuth2AccessToken(), loaded.getAuthentication()));
+        return token;
+    }
+}
@@ -0,0 +1,172 @@
+package org.infinity.passport.config.oauth2;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.domain.TokenRevocation;
+import org.infinity.passport.event.AccessTokenRevokedEvent;
+import org.infinity.passport.event.ApprovalChangedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Subscription;
+import org.springframework.data.mongodb.core.messaging.TailableCursorRequest;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Broadcasts the token revocations to all the nodes of the cluster so that every {@link AccessTokenNearCache}
+ * stays coherent. Revocations are appended to a capped collection and each node follows it with a tailable cursor,
+ * then an {@link AccessTokenRevokedEvent} is published locally within milliseconds without reading Mongo per request.
+ * Approval changes are broadcast the same way as an {@link ApprovalChangedEvent} to keep every {@link ApprovalCache}
+ * coherent.
+ * The cursor is stopped by any error, e.g. a network failure or a capped collection overflow, so it is resubscribed
+ * from the last received revocation by {@link #resubscribeIfFailed()}.
+ */
+@Component
+@Slf4j
+public class TokenRevocationBroadcaster {
+
+    private final String                                       nodeId      = UUID.randomUUID().toString();
+    private final Instant                                      startedTime = Instant.now();
+    private final MongoTemplate                                mongoTemplate;
+    private final MessageListenerContainer                     messageListenerContainer;
+    private final ApplicationEventPublisher                    applicationEventPublisher;
+    private final ApplicationProperties.Oauth2.TokenRevocation tokenRevocation;
+    private final AtomicBoolean                                failed      = new AtomicBoolean();
+    private volatile Subscription                              subscription;
+    private volatile ObjectId                                  lastSeenId;
+    private volatile Throwable                                 lastError;
+
+    public TokenRevocationBroadcaster(MongoTemplate mongoTemplate,
+                                      MessageListenerContainer messageListenerContainer,
+                                      ApplicationEventPublisher applicationEventPublisher,
+                                      ApplicationProperties applicationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.messageListenerContainer = messageListenerContainer;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.tokenRevocation = applicationProperties.getOauth2().getTokenRevocation();
+    }
+
+    @PostConstruct
+    private void createCappedCollection() {
+        if (!tokenRevocation.isEnabled() || mongoTemplate.collectionExists(TokenRevocation.class)) {
+            return;
+        }
+        try {
+            mongoTemplate.createCollection(TokenRevocation.class, CollectionOptions.empty()
+                    .capped()
+                    .size(tokenRevocation.getCappedSize())
+                    .maxDocuments(tokenRevocation.getCappedMaxDocuments()));
+        } catch (DataAccessException e) {
+            // Another node may create it at the same time
+            log.debug("Capped collection {} has already been created", mongoTemplate.getCollectionName(TokenRevocation.class));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribe() {
+        if (!tokenRevocation.isEnabled()) {
+            return;
+        }
+        // A tailable cursor on an empty capped collection is closed immediately, so make sure it holds a document
+        mongoTemplate.insert(new TokenRevocation(null, nodeId));
+
+        subscription = register();
+        log.info("Subscribed to access token revocations on node {}", nodeId);
+    }
+
+    @Scheduled(fixedDelayString = "${application.oauth2.token-revocation.resubscribe-interval-millis:5000}")
+    public void resubscribeIfFailed() {
+        if (!failed.compareAndSet(true, false)) {
+            return;
+        }
+        messageListenerContainer.remove(subscription);
+        subscription = register();
+        log.info("Resubscribed to access token revocations after {} on node {}", lastSeenId, nodeId);
+    }
+
+    /**
+     * Whether the tailable cursor is following the revocations.
+     *
+     * @return {@code true} if it is subscribed and has not failed
+     */
+    public boolean isSubscribed() {
+        return !failed.get() && subscription != null;
+    }
+
+    public Throwable getLastError() {
+        return lastError;
+    }
+
+    private Subscription register() {
+        // Resume after the last received revocation, ObjectId is increasing in the insertion order of a capped collection
+        Criteria criteria = lastSeenId != null
+                ? Criteria.where("_id").gt(lastSeenId)
+                : Criteria.where("createdTime").gte(startedTime);
+        Query query = Query.query(criteria
+                .and("nodeId").ne(nodeId)
+                .orOperator(Criteria.where("tokenValue").ne(null), Criteria.where("userId").ne(null)));
+        TailableCursorRequest<TokenRevocation> request = TailableCursorRequest.<TokenRevocation>builder(this::onRevocation)
+                .collection(mongoTemplate.getCollectionName(TokenRevocation.class))
+                .filter(query)
+                .build();
+        return messageListenerContainer.register(request, TokenRevocation.class, this::onError);
+    }
+
+    /**
+     * Publish the revocation locally and broadcast it to other nodes.
+     *
+     * @param tokenValue access or refresh token value
+     */
+    public void revoke(String tokenValue) {
+        applicationEventPublisher.publishEvent(new AccessTokenRevokedEvent(this, tokenValue));
+        if (tokenRevocation.isEnabled()) {
+            mongoTemplate.insert(new TokenRevocation(tokenValue, nodeId));
+        }
+    }
+
+    /**
+     * Broadcast the change of the approvals to other nodes, the caller evicts its own cache.
+     *
+     * @param userId   user ID
+     * @param clientId client ID
+     */
+    public void changeApprovals(String userId, String clientId) {
+        if (tokenRevocation.isEnabled()) {
+            mongoTemplate.insert(new TokenRevocation(userId, clientId, nodeId));
+        }
+    }
+
+    private void onRevocation(Message<Document, TokenRevocation> message) {
+        TokenRevocation revocation = message.getBody();
+        if (revocation != null && revocation.getTokenValue() != null) {
+            applicationEventPublisher.publishEvent(new AccessTokenRevokedEvent(this, revocation.getTokenValue()));
+        } else if (revocation != null && revocation.getUserId() != null) {
+            applicationEventPublisher.publishEvent(new ApprovalChangedEvent(this, revocation.getUserId(), revocation.getClientId()));
+        }
+        if (message.getRaw() != null) {
+            lastSeenId = message.getRaw().getObjectId("_id");
+        }
+    }
+
+    private void onError(Throwable e) {
+        // The cursor task has been cancelled when the error handler is called
+        log.error("Failed to follow access token revocations on node {}", nodeId, e);
+        lastError = e;
+        failed.set(true);
+    }
+}
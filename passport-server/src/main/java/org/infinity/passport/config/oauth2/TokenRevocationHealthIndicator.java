@@ -0,0 +1,40 @@
+package org.infinity.passport.config.oauth2;
+
+import org.infinity.passport.config.ApplicationProperties;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the node down while it does not follow the token revocations of other nodes,
+ * because its near caches may serve revoked access tokens during that time.
+ */
+@Component
+public class TokenRevocationHealthIndicator extends AbstractHealthIndicator {
+
+    private final TokenRevocationBroadcaster tokenRevocationBroadcaster;
+    private final boolean                    enabled;
+
+    public TokenRevocationHealthIndicator(TokenRevocationBroadcaster tokenRevocationBroadcaster,
+                                          ApplicationProperties applicationProperties) {
+        super("Token revocation health check failed");
+        this.tokenRevocationBroadcaster = tokenRevocationBroadcaster;
+        this.enabled = applicationProperties.getOauth2().getTokenRevocation().isEnabled();
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        if (!enabled) {
+            builder.unknown().withDetail("enabled", false);
+            return;
+        }
+        if (tokenRevocationBroadcaster.isSubscribed()) {
+            builder.up();
+        } else {
+            builder.down();
+        }
+        if (tokenRevocationBroadcaster.getLastError() != null) {
+            builder.withDetail("lastError", tokenRevocationBroadcaster.getLastError().toString());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.infinity.passport.config.oauth2;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.infinity.passport.config.ApplicationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Short-lived in-process cache of the {@link SecurityUser} loaded per login, which may be a user name, email or mobile
+ * number. Only successful loads are cached. Changes made by the user service on this node evict the user immediately,
+ * changes made on other nodes are picked up after the cached time. A load which overlaps an eviction is not kept, since
+ * it may have read the user before the change.
+ * Hit, miss and eviction metrics are exported to the meter registry under the name {@link #CACHE_NAME}.
+ */
+@Component
+@Slf4j
+public class UserDetailsCache {
+
+    public static final String CACHE_NAME = "oauth2.user-details";
+
+    private final boolean                     enabled;
+    private final Cache<String, SecurityUser> cache;
+    /**
+     * Incremented by each eviction before removing the entries
+     */
+    private final AtomicLong                  evictions = new AtomicLong();
+
+    public UserDetailsCache(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        ApplicationProperties.Oauth2.UserDetailsCache userDetailsCache = applicationProperties.getOauth2().getUserDetailsCache();
+        this.enabled = userDetailsCache.isEnabled();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(userDetailsCache.getMaximumSize())
+                .expireAfterWrite(userDetailsCache.getExpireAfterWriteSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Get the user details from cache, or load it with the loader and cache it.
+     *
+     * @param login  user name, email or mobile number
+     * @param loader loader used on cache miss, it throws an exception if the user can not log in
+     * @return user details shared by the callers, its credentials must not be erased
+     */
+    public SecurityUser get(String login, Function<String, SecurityUser> loader) {
+        String key = login.toLowerCase(Locale.ENGLISH);
+        if (!enabled) {
+            return loader.apply(key);
+        }
+        SecurityUser user = cache.getIfPresent(key);
+        if (user != null) {
+            return user;
+        }
+        long evictionsBeforeLoad = evictions.get();
+        user = loader.apply(key);
+        cache.put(key, user);
+        if (evictions.get() != evictionsBeforeLoad) {
+            // An eviction has started during the load, either it removes the entry or it is removed here
+            cache.invalidate(key);
+        }
+        return user;
+    }
+
+    /**
+     * Evict the user details cached under any login of the user.
+     *
+     * @param userId user ID
+     */
+    public void evict(String userId) {
+        evictions.incrementAndGet();
+        if (cache.asMap().values().removeIf(user -> user.getUserId().equals(userId))) {
+            log.debug("Evicted changed user details: {}", userId);
+        }
+    }
+}
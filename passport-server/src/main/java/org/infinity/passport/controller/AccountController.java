@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.FastDateFormat;
 import org.infinity.passport.component.HttpHeaderCreator;
+import org.infinity.passport.config.oauth2.BatchTokenStore;
 import org.infinity.passport.config.oauth2.SecurityUser;
 import org.infinity.passport.domain.Authority;
 import org.infinity.passport.domain.User;
@@ -13,6 +14,8 @@ import org.infinity.passport.domain.UserAuthority;
 import org.infinity.passport.domain.UserProfilePhoto;
 import org.infinity.passport.dto.ManagedUserDTO;
 import org.infinity.passport.dto.ResetKeyAndPasswordDTO;
+import org.infinity.passport.dto.TokenIntrospectionDTO;
+import org.infinity.passport.dto.TokenUserDTO;
 import org.infinity.passport.dto.UserNameAndPasswordDTO;
 import org.infinity.passport.event.LogoutEvent;
 import org.infinity.passport.exception.NoAuthorityException;
@@ -36,7 +39,6 @@ import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
-import org.springframework.security.oauth2.provider.token.TokenStore;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.ModelAndView;
@@ -45,10 +47,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.io.IOException;
 import java.security.Principal;
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import static javax.servlet.http.HttpServletResponse.*;
@@ -68,7 +67,7 @@ public class AccountController {
     private final        UserProfilePhotoService    userProfilePhotoService;
     private final        AuthorityService           authorityService;
     private final        MailService                mailService;
-    private final        TokenStore                 tokenStore;
+    private final        BatchTokenStore            tokenStore;
     private final        ApplicationEventPublisher  applicationEventPublisher;
     private final        HttpHeaderCreator          httpHeaderCreator;
 
@@ -78,7 +77,7 @@ public class AccountController {
                              UserProfilePhotoService userProfilePhotoService,
                              AuthorityService authorityService,
                              MailService mailService,
-                             TokenStore tokenStore,
+                             BatchTokenStore tokenStore,
                              ApplicationEventPublisher applicationEventPublisher,
                              HttpHeaderCreator httpHeaderCreator) {
         this.userService = userService;
@@ -158,6 +157,21 @@ public class AccountController {
         return ResponseEntity.ok(ImmutableMap.of("error", true));
     }
 
+    @ApiOperation(value = "批量检查访问令牌", notes = "用于网关批量校验令牌，调用方需持有DEVELOPER权限的客户端令牌，无效或过期的令牌不会出现在返回结果里，单次最多" + TokenIntrospectionDTO.MAX_TOKENS + "个令牌")
+    @ApiResponses(value = {@ApiResponse(code = SC_OK, message = "成功检索")})
+    @PostMapping("/api/account/token-users")
+    @Secured({Authority.DEVELOPER})
+    public ResponseEntity<Map<String, TokenUserDTO>> getTokenUsers(
+            @ApiParam(value = "访问令牌列表", required = true) @Valid @RequestBody TokenIntrospectionDTO dto) {
+        Map<String, TokenUserDTO> tokenUsers = new LinkedHashMap<>(dto.getTokens().size());
+        tokenStore.readAuthentications(dto.getTokens()).forEach((token, authentication) -> {
+            if (authentication.getUserAuthentication() != null) {
+                tokenUsers.put(token, new TokenUserDTO(authentication));
+            }
+        });
+        return ResponseEntity.ok(tokenUsers);
+    }
+
     @ApiOperation("注册新用户并发送激活邮件")
     @ApiResponses(value = {@ApiResponse(code = SC_CREATED, message = "成功创建"),
             @ApiResponse(code = SC_BAD_REQUEST, message = "账号已注册")})
@@ -1,5 +1,7 @@
 package org.infinity.passport.controller;
 
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.infinity.passport.exception.PasswordHashingRejectedException;
 import org.springframework.boot.web.servlet.error.ErrorAttributes;
 import org.springframework.boot.web.servlet.error.ErrorController;
 import org.springframework.http.HttpStatus;
@@ -84,6 +86,11 @@ public class ApplicationErrorController implements ErrorController {
     }
 
     private HttpStatus getStatus(HttpServletRequest request) {
+        Throwable error = errorAttributes.getError(new ServletWebRequest(request));
+        if (error != null && ExceptionUtils.indexOfType(error, PasswordHashingRejectedException.class) >= 0) {
+            // Raised by the password hashing in the security filters, e.g. client authentication
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
         Integer statusCode = (Integer) request.getAttribute("javax.servlet.error.status_code");
         if (statusCode != null) {
             try {
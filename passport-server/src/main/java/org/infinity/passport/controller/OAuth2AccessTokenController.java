@@ -2,14 +2,21 @@ package org.infinity.passport.controller;
 
 import io.swagger.annotations.*;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.infinity.passport.component.HttpHeaderCreator;
+import org.infinity.passport.config.oauth2.TokenRevocationBroadcaster;
 import org.infinity.passport.domain.Authority;
 import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.infinity.passport.dto.OAuth2AccessTokenSummaryDTO;
 import org.infinity.passport.exception.NoDataFoundException;
 import org.infinity.passport.repository.OAuth2AccessTokenRepository;
-import org.springframework.data.domain.Example;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
@@ -21,17 +28,28 @@ import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static org.infinity.passport.utils.HttpHeaderUtils.generatePageHeaders;
 
+/**
+ * REST controller for the access tokens persisted in MongoDB. The local token store keeps the tokens in process
+ * only, where they could neither be listed nor deleted here, so the controller is not registered with it.
+ */
 @RestController
+@ConditionalOnExpression("'${application.oauth2.token-store:mongo}' != 'local'")
 @Api(tags = "访问令牌")
 @Slf4j
 public class OAuth2AccessTokenController {
 
     private final OAuth2AccessTokenRepository oAuth2AccessTokenRepository;
+    private final MongoTemplate               mongoTemplate;
+    private final TokenRevocationBroadcaster  tokenRevocationBroadcaster;
     private final HttpHeaderCreator           httpHeaderCreator;
 
     public OAuth2AccessTokenController(OAuth2AccessTokenRepository oAuth2AccessTokenRepository,
+                                       MongoTemplate mongoTemplate,
+                                       TokenRevocationBroadcaster tokenRevocationBroadcaster,
                                        HttpHeaderCreator httpHeaderCreator) {
         this.oAuth2AccessTokenRepository = oAuth2AccessTokenRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.tokenRevocationBroadcaster = tokenRevocationBroadcaster;
         this.httpHeaderCreator = httpHeaderCreator;
     }
 
@@ -39,17 +57,32 @@ public class OAuth2AccessTokenController {
     @ApiResponses(value = {@ApiResponse(code = SC_OK, message = "成功检索")})
     @GetMapping("/api/oauth2-access-tokens")
     @Secured(Authority.ADMIN)
-    public ResponseEntity<List<MongoOAuth2AccessToken>> find(Pageable pageable,
-                                                             @ApiParam(value = "访问令牌ID") @RequestParam(value = "tokenId", required = false) String tokenId,
-                                                             @ApiParam(value = "客户端ID") @RequestParam(value = "clientId", required = false) String clientId,
-                                                             @ApiParam(value = "用户名") @RequestParam(value = "userName", required = false) String userName,
-                                                             @ApiParam(value = "刷新令牌") @RequestParam(value = "refreshToken", required = false) String refreshToken) {
-        MongoOAuth2AccessToken probe = new MongoOAuth2AccessToken();
-        probe.setId(tokenId);
-        probe.setClientId(clientId);
-        probe.setUserName(userName);
-        probe.setRefreshToken(refreshToken);
-        Page<MongoOAuth2AccessToken> tokens = oAuth2AccessTokenRepository.findAll(Example.of(probe), pageable);
+    public ResponseEntity<List<OAuth2AccessTokenSummaryDTO>> find(Pageable pageable,
+                                                                  @ApiParam(value = "访问令牌ID") @RequestParam(value = "tokenId", required = false) String tokenId,
+                                                                  @ApiParam(value = "客户端ID") @RequestParam(value = "clientId", required = false) String clientId,
+                                                                  @ApiParam(value = "用户名") @RequestParam(value = "userName", required = false) String userName,
+                                                                  @ApiParam(value = "刷新令牌") @RequestParam(value = "refreshToken", required = false) String refreshToken) {
+        Query query = new Query();
+        if (StringUtils.isNotEmpty(tokenId)) {
+            query.addCriteria(Criteria.where("id").is(tokenId));
+        }
+        if (StringUtils.isNotEmpty(clientId)) {
+            query.addCriteria(Criteria.where("clientId").is(clientId));
+        }
+        if (StringUtils.isNotEmpty(userName)) {
+            query.addCriteria(Criteria.where("userName").is(userName));
+        }
+        if (StringUtils.isNotEmpty(refreshToken)) {
+            query.addCriteria(Criteria.where("refreshToken").is(refreshToken));
+        }
+        long totalCount = mongoTemplate.count(query, MongoOAuth2AccessToken.class);
+        // Leave out the embedded authentication which is the largest part of the document
+        query.with(pageable);
+        for (String fieldName : OAuth2AccessTokenSummaryDTO.FIELD_NAMES) {
+            query.fields().include(fieldName);
+        }
+        Page<OAuth2AccessTokenSummaryDTO> tokens = new PageImpl<>(mongoTemplate.find(query, OAuth2AccessTokenSummaryDTO.class,
+                mongoTemplate.getCollectionName(MongoOAuth2AccessToken.class)), pageable, totalCount);
         HttpHeaders headers = generatePageHeaders(tokens);
         return ResponseEntity.ok().headers(headers).body(tokens.getContent());
     }
@@ -74,6 +107,7 @@ public class OAuth2AccessTokenController {
         log.debug("REST request to delete oauth2 access token: {}", id);
         oAuth2AccessTokenRepository.findById(id).orElseThrow(() -> new NoDataFoundException(id));
         oAuth2AccessTokenRepository.deleteById(id);
+        tokenRevocationBroadcaster.revoke(id);
         return ResponseEntity.ok()
                 .headers(httpHeaderCreator.createSuccessHeader("SM1003", id)).build();
     }
@@ -4,6 +4,7 @@ import io.swagger.annotations.*;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.infinity.passport.component.HttpHeaderCreator;
+import org.infinity.passport.config.oauth2.ApprovalCache;
 import org.infinity.passport.domain.Authority;
 import org.infinity.passport.domain.MongoOAuth2Approval;
 import org.infinity.passport.exception.NoDataFoundException;
@@ -34,13 +35,17 @@ public class OAuth2ApprovalController {
 
     private final MongoTemplate mongoTemplate;
 
+    private final ApprovalCache approvalCache;
+
     private final HttpHeaderCreator httpHeaderCreator;
 
     public OAuth2ApprovalController(OAuth2ApprovalRepository oAuth2ApprovalRepository,
                                     MongoTemplate mongoTemplate,
+                                    ApprovalCache approvalCache,
                                     HttpHeaderCreator httpHeaderCreator) {
         this.oAuth2ApprovalRepository = oAuth2ApprovalRepository;
         this.mongoTemplate = mongoTemplate;
+        this.approvalCache = approvalCache;
         this.httpHeaderCreator = httpHeaderCreator;
     }
 
@@ -87,8 +92,9 @@ public class OAuth2ApprovalController {
     @Secured(Authority.ADMIN)
     public ResponseEntity<Void> delete(@ApiParam(value = "授权ID", required = true) @PathVariable String id) {
         log.debug("REST request to delete oauth2 approval: {}", id);
-        oAuth2ApprovalRepository.findById(id).orElseThrow(() -> new NoDataFoundException(id));
+        MongoOAuth2Approval domain = oAuth2ApprovalRepository.findById(id).orElseThrow(() -> new NoDataFoundException(id));
         oAuth2ApprovalRepository.deleteById(id);
+        approvalCache.evict(domain.getUserId(), domain.getClientId());
         return ResponseEntity.ok()
                 .headers(httpHeaderCreator.createSuccessHeader("SM1003", id)).build();
     }
@@ -2,6 +2,7 @@ package org.infinity.passport.controller;
 
 import io.swagger.annotations.*;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.infinity.passport.component.HttpHeaderCreator;
 import org.infinity.passport.domain.Authority;
 import org.infinity.passport.domain.MongoOAuth2AuthorizationCode;
@@ -52,8 +53,8 @@ public class OAuth2AuthorizationCodeController {
                                                                    @ApiParam(value = "授权码ID") @RequestParam(value = "authorizationCodeId", required = false) String authorizationCodeId,
                                                                    @ApiParam(value = "授权码") @RequestParam(value = "code", required = false) String code) {
         MongoOAuth2AuthorizationCode probe = new MongoOAuth2AuthorizationCode();
-        probe.setId(authorizationCodeId);
-        probe.setCode(code);
+        // The authorization code is the ID
+        probe.setId(StringUtils.defaultIfEmpty(authorizationCodeId, code));
         Page<MongoOAuth2AuthorizationCode> codes = oAuth2AuthorizationCodeRepository.findAll(Example.of(probe), pageable);
         HttpHeaders headers = generatePageHeaders(codes);
         return ResponseEntity.ok().headers(headers).body(codes.getContent());
@@ -7,6 +7,7 @@ import org.infinity.passport.domain.Authority;
 import org.infinity.passport.domain.MongoOAuth2RefreshToken;
 import org.infinity.passport.exception.NoDataFoundException;
 import org.infinity.passport.repository.OAuth2RefreshTokenRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
 import org.springframework.data.domain.Page;
@@ -22,7 +23,11 @@ import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static org.infinity.passport.utils.HttpHeaderUtils.generatePageHeaders;
 
+/**
+ * REST controller for the refresh tokens persisted in MongoDB, it is not registered with the local token store.
+ */
 @RestController
+@ConditionalOnExpression("'${application.oauth2.token-store:mongo}' != 'local'")
 @Api(tags = "刷新令牌信息")
 @Slf4j
 public class OAuth2RefreshTokenController {
@@ -1,35 +1,47 @@
 package org.infinity.passport.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.*;
 import lombok.extern.slf4j.Slf4j;
 import org.infinity.passport.component.HttpHeaderCreator;
+import org.infinity.passport.config.ApplicationProperties;
 import org.infinity.passport.domain.Authority;
 import org.infinity.passport.domain.User;
 import org.infinity.passport.domain.UserAuthority;
 import org.infinity.passport.domain.UserProfilePhoto;
 import org.infinity.passport.dto.ManagedUserDTO;
+import org.infinity.passport.dto.UserImportSummaryDTO;
 import org.infinity.passport.dto.UserNameAndPasswordDTO;
 import org.infinity.passport.event.LogoutEvent;
 import org.infinity.passport.exception.NoAuthorityException;
 import org.infinity.passport.repository.UserAuthorityRepository;
 import org.infinity.passport.repository.UserProfilePhotoRepository;
 import org.infinity.passport.service.MailService;
+import org.infinity.passport.service.UserImportService;
 import org.infinity.passport.service.UserService;
 import org.infinity.passport.utils.SecurityUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 import static javax.servlet.http.HttpServletResponse.*;
@@ -45,25 +57,40 @@ import static org.infinity.passport.utils.NetworkUtils.getRequestUrl;
 @Slf4j
 public class UserController {
 
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final String CSV_VALUE    = "text/csv";
+
     private final UserProfilePhotoRepository userProfilePhotoRepository;
     private final UserAuthorityRepository    userAuthorityRepository;
     private final UserService                userService;
+    private final UserImportService          userImportService;
     private final MailService                mailService;
     private final ApplicationEventPublisher  applicationEventPublisher;
     private final HttpHeaderCreator          httpHeaderCreator;
+    private final ObjectMapper               objectMapper;
+    private final Executor                   asyncTaskExecutor;
+    private final long                       importTimeoutMillis;
 
     public UserController(UserProfilePhotoRepository userProfilePhotoRepository,
                           UserAuthorityRepository userAuthorityRepository,
                           UserService userService,
+                          UserImportService userImportService,
                           MailService mailService,
                           ApplicationEventPublisher applicationEventPublisher,
-                          HttpHeaderCreator httpHeaderCreator) {
+                          HttpHeaderCreator httpHeaderCreator,
+                          ObjectMapper objectMapper,
+                          @Qualifier("asyncTaskExecutor") Executor asyncTaskExecutor,
+                          ApplicationProperties applicationProperties) {
         this.userProfilePhotoRepository = userProfilePhotoRepository;
         this.userAuthorityRepository = userAuthorityRepository;
         this.userService = userService;
+        this.userImportService = userImportService;
         this.mailService = mailService;
         this.applicationEventPublisher = applicationEventPublisher;
         this.httpHeaderCreator = httpHeaderCreator;
+        this.objectMapper = objectMapper;
+        this.asyncTaskExecutor = asyncTaskExecutor;
+        this.importTimeoutMillis = applicationProperties.getUserImport().getTimeoutMillis();
     }
 
     @ApiOperation(value = "创建新用户并发送激活邮件")
@@ -80,6 +107,45 @@ public class UserController {
         return ResponseEntity.status(HttpStatus.CREATED).headers(headers).build();
     }
 
+    @ApiOperation(value = "批量导入用户", notes = "上传NDJSON或带表头的CSV，CSV字段可用双引号包含逗号但不支持换行，每行必须包含密码，逐行返回导入失败的用户，最后一行为导入汇总，不发送激活邮件")
+    @ApiResponses(value = {@ApiResponse(code = SC_OK, message = "成功导入")})
+    @PostMapping(value = "/api/users/import", consumes = {NDJSON_VALUE, CSV_VALUE}, produces = NDJSON_VALUE)
+    @Secured({Authority.ADMIN})
+    public ResponseEntity<ResponseBodyEmitter> importUsers(@ApiParam(value = "是否激活") @RequestParam(value = "activated", defaultValue = "false") boolean activated,
+                                                             HttpServletRequest request) {
+        UserImportService.Format format = MediaType.parseMediaType(request.getContentType())
+                .isCompatibleWith(MediaType.parseMediaType(CSV_VALUE)) ? UserImportService.Format.CSV : UserImportService.Format.NDJSON;
+        log.debug("REST request to import users in {} format", format);
+        // Both the upload and the response are streamed, so that the errors are reported while the users are imported.
+        // The emitter has its own timeout, since a large import outlasts the default async request timeout.
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(importTimeoutMillis);
+        emitter.onTimeout(() -> log.warn("Timed out importing users after {} ms, the import stops after the current batch", importTimeoutMillis));
+        Runnable importTask = () -> {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+                UserImportSummaryDTO summary = userImportService.importUsers(reader, format, activated, error -> sendLine(emitter, error));
+                sendLine(emitter, summary);
+                emitter.complete();
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to import users", e);
+                emitter.completeWithError(e);
+            }
+        };
+        asyncTaskExecutor.execute(new DelegatingSecurityContextRunnable(importTask));
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(emitter);
+    }
+
+    private void sendLine(ResponseBodyEmitter emitter, Object value) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(value);
+            byte[] line = Arrays.copyOf(json, json.length + 1);
+            line[json.length] = '\n';
+            emitter.send(line, MediaType.APPLICATION_OCTET_STREAM);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @ApiOperation("分页检索用户列表")
     @ApiResponses(value = {@ApiResponse(code = SC_OK, message = "成功检索")})
     @GetMapping("/api/users")
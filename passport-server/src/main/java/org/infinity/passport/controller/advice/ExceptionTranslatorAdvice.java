@@ -10,6 +10,7 @@ import org.infinity.passport.dto.ErrorDTO;
 import org.infinity.passport.exception.DuplicationException;
 import org.infinity.passport.exception.NoAuthorityException;
 import org.infinity.passport.exception.NoDataFoundException;
+import org.infinity.passport.exception.PasswordHashingRejectedException;
 import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -46,6 +47,7 @@ public class ExceptionTranslatorAdvice {
     public static final String SYS_ERROR_CODE             = "ES7000";
     public static final String SYS_EXCEPTION_CODE         = "ES7001";
     public static final String CONCURRENCY_EXCEPTION_CODE = "ES7002";
+    public static final String SERVER_BUSY_CODE           = "ES7003";
 
     private final MessageCreator messageCreator;
 
@@ -188,6 +190,15 @@ public class ExceptionTranslatorAdvice {
         return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
     }
 
+    @ExceptionHandler(PasswordHashingRejectedException.class)
+    @ResponseBody
+    public ResponseEntity<ErrorDTO> processPasswordHashingRejectedException(PasswordHashingRejectedException ex) {
+        log.warn("Rejected password hashing: {}", ex.getMessage());
+        ErrorDTO error = ErrorDTO.builder().code(SYS_ERROR_CODE).message(messageCreator.getMessage(SERVER_BUSY_CODE)).build();
+        // Http status: 503
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error);
+    }
+
     @ExceptionHandler(Throwable.class)
     @ResponseBody
     public ResponseEntity<ErrorDTO> processException(Throwable throwable) {
@@ -58,6 +58,7 @@ public class DatabaseInitializer {
         userRoleUser.setResetTime(null);
         userRoleUser.setEnabled(true);
         mongoTemplate.save(userRoleUser);
+        saveLoginKeys(mongoTemplate, userRoleUser);
 
         mongoTemplate.save(new UserAuthority(userRoleUser.getId(), Authority.USER));
 
@@ -76,6 +77,7 @@ public class DatabaseInitializer {
         adminRoleUser.setResetTime(null);
         adminRoleUser.setEnabled(true);
         mongoTemplate.save(adminRoleUser);
+        saveLoginKeys(mongoTemplate, adminRoleUser);
 
         mongoTemplate.save(new UserAuthority(adminRoleUser.getId(), Authority.USER));
         mongoTemplate.save(new UserAuthority(adminRoleUser.getId(), Authority.ADMIN));
@@ -95,6 +97,7 @@ public class DatabaseInitializer {
         adminRoleSystemUser.setResetTime(null);
         adminRoleSystemUser.setEnabled(true);
         mongoTemplate.save(adminRoleSystemUser);
+        saveLoginKeys(mongoTemplate, adminRoleSystemUser);
 
         mongoTemplate.save(new UserAuthority(adminRoleSystemUser.getId(), Authority.USER));
         mongoTemplate.save(new UserAuthority(adminRoleSystemUser.getId(), Authority.ADMIN));
@@ -114,12 +117,17 @@ public class DatabaseInitializer {
         developerRoleUser.setResetTime(null);
         developerRoleUser.setEnabled(true);
         mongoTemplate.save(developerRoleUser);
+        saveLoginKeys(mongoTemplate, developerRoleUser);
 
         mongoTemplate.save(new UserAuthority(developerRoleUser.getId(), Authority.USER));
         mongoTemplate.save(new UserAuthority(developerRoleUser.getId(), Authority.ADMIN));
         mongoTemplate.save(new UserAuthority(developerRoleUser.getId(), Authority.DEVELOPER));
     }
 
+    private void saveLoginKeys(MongockTemplate mongoTemplate, User user) {
+        UserLoginKey.of(user).forEach(loginKey -> mongoTemplate.save(new UserLoginKey(loginKey, user.getId())));
+    }
+
     @ChangeSet(order = "04", author = "Louis", id = "addAuthorityAdminMenu", runAlways = true)
     public void addAuthorityAdminMenu(MongockTemplate mongoTemplate) {
 
@@ -3,12 +3,173 @@ package org.infinity.passport.db.updater;
 import com.github.cloudyrock.mongock.ChangeLog;
 import com.github.cloudyrock.mongock.ChangeSet;
 import com.github.cloudyrock.mongock.driver.mongodb.springdata.v3.decorator.impl.MongockTemplate;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.OAuth2AuthenticationCodec;
+import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.infinity.passport.domain.MongoOAuth2Approval;
+import org.infinity.passport.domain.MongoOAuth2AuthorizationCode;
+import org.infinity.passport.domain.MongoOAuth2RefreshToken;
+import org.infinity.passport.domain.User;
+import org.infinity.passport.domain.UserLoginKey;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+import java.util.*;
+import java.util.function.Function;
 
 @ChangeLog(order = "02")
+@Slf4j
 public class DatabaseUpdater {
 
+    /**
+     * BSON type number of embedded document
+     */
+    private static final int BSON_TYPE_DOCUMENT = 3;
+
     @ChangeSet(order = "01", author = "Louis", id = "data-updater")
     public void dataUpdater(MongockTemplate mongoTemplate) {
         // leave blank intentionally
     }
+
+    /**
+     * Rewrite the authentications which were stored as nested documents in the compact binary format. Only the
+     * authentication field of a document which still exists is updated, so that a token or code removed by a request
+     * meanwhile is not written back, and it is safe to run it while serving requests.
+     * It runs on every startup while application.oauth2.binary-authentication is enabled, so that the documents
+     * written before the flag was enabled are migrated as well, and does nothing while the flag is disabled.
+     * The access tokens are migrated last and checked first: if none of them is nested, a previous run has completed
+     * and the collections are not scanned again.
+     */
+    @ChangeSet(order = "02", author = "Louis", id = "migrateBinaryAuthentication", runAlways = true)
+    public void migrateBinaryAuthentication(MongockTemplate mongoTemplate, ApplicationProperties applicationProperties) {
+        if (!applicationProperties.getOauth2().isBinaryAuthentication()
+                || !mongoTemplate.exists(nestedAuthenticationQuery(), MongoOAuth2AccessToken.class)) {
+            return;
+        }
+        rewriteNestedAuthentications(mongoTemplate, MongoOAuth2AuthorizationCode.class,
+                MongoOAuth2AuthorizationCode::getId, MongoOAuth2AuthorizationCode::getAuthentication);
+        rewriteNestedAuthentications(mongoTemplate, MongoOAuth2RefreshToken.class,
+                MongoOAuth2RefreshToken::getId, MongoOAuth2RefreshToken::getAuthentication);
+        rewriteNestedAuthentications(mongoTemplate, MongoOAuth2AccessToken.class,
+                MongoOAuth2AccessToken::getId, MongoOAuth2AccessToken::getAuthentication);
+    }
+
+    /**
+     * The authorization codes are keyed by the code itself and expire now, the old ones without expiration can never
+     * be redeemed any more.
+     */
+    @ChangeSet(order = "03", author = "Louis", id = "keyAuthorizationCodeById")
+    public void keyAuthorizationCodeById(MongockTemplate mongoTemplate) {
+        mongoTemplate.remove(Query.query(Criteria.where("expiration").exists(false)), MongoOAuth2AuthorizationCode.class);
+        mongoTemplate.indexOps(MongoOAuth2AuthorizationCode.class).getIndexInfo().stream()
+                .filter(indexInfo -> indexInfo.isIndexForFields(Collections.singletonList("code")))
+                .forEach(indexInfo -> mongoTemplate.indexOps(MongoOAuth2AuthorizationCode.class).dropIndex(indexInfo.getName()));
+    }
+
+    /**
+     * Approvals are upserted on a unique (userId, clientId, scope) index now, keep the latest one of the duplicates
+     * before the index is created.
+     */
+    @ChangeSet(order = "04", author = "Louis", id = "deduplicateApprovals")
+    public void deduplicateApprovals(MongockTemplate mongoTemplate) {
+        Set<List<String>> keys = new HashSet<>();
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "lastUpdatedAt"));
+        try (CloseableIterator<MongoOAuth2Approval> approvals = mongoTemplate.stream(query, MongoOAuth2Approval.class)) {
+            approvals.forEachRemaining(approval -> {
+                if (!keys.add(Arrays.asList(approval.getUserId(), approval.getClientId(), approval.getScope()))) {
+                    mongoTemplate.remove(approval);
+                }
+            });
+        }
+    }
+
+    /**
+     * Access tokens are upserted on a unique authenticationId index now, keep the latest one of the duplicates and
+     * replace the former non-unique index.
+     */
+    @ChangeSet(order = "05", author = "Louis", id = "uniqueAccessTokenAuthenticationId")
+    public void uniqueAccessTokenAuthenticationId(MongockTemplate mongoTemplate) {
+        Set<String> authenticationIds = new HashSet<>();
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "expiration"));
+        query.fields().include("authenticationId");
+        try (CloseableIterator<Document> tokens = mongoTemplate.stream(query, Document.class,
+                mongoTemplate.getCollectionName(MongoOAuth2AccessToken.class))) {
+            tokens.forEachRemaining(token -> {
+                if (!authenticationIds.add(token.getString("authenticationId"))) {
+                    mongoTemplate.remove(Query.query(Criteria.where("_id").is(token.get("_id"))), MongoOAuth2AccessToken.class);
+                }
+            });
+        }
+        IndexOperations indexOps = mongoTemplate.indexOps(MongoOAuth2AccessToken.class);
+        indexOps.getIndexInfo().stream()
+                .filter(indexInfo -> indexInfo.isIndexForFields(Collections.singletonList("authenticationId")) && !indexInfo.isUnique())
+                .forEach(indexInfo -> indexOps.dropIndex(indexInfo.getName()));
+        indexOps.ensureIndex(new Index("authenticationId", Sort.Direction.ASC)
+                .named(MongoOAuth2AccessToken.AUTHENTICATION_ID_INDEX_NAME).unique());
+    }
+
+    /**
+     * Logins are resolved through the login keys now, create them for the existing users. A login shared by several
+     * users is kept by the first one, and the conflicting users are logged to be resolved manually.
+     */
+    @ChangeSet(order = "06", author = "Louis", id = "addUserLoginKeys")
+    public void addUserLoginKeys(MongockTemplate mongoTemplate) {
+        try (CloseableIterator<User> users = mongoTemplate.stream(new Query(), User.class)) {
+            users.forEachRemaining(user -> UserLoginKey.of(user).forEach(loginKey -> {
+                try {
+                    mongoTemplate.insert(new UserLoginKey(loginKey, user.getId()));
+                } catch (DuplicateKeyException e) {
+                    // Keep the login of the first user
+                    UserLoginKey existing = mongoTemplate.findById(loginKey, UserLoginKey.class);
+                    log.warn("Login {} of user {} is already used by user {}, it can no longer be used by user {}",
+                            loginKey, user.getId(), existing != null ? existing.getUserId() : null, user.getId());
+                }
+            }));
+        }
+    }
+
+    /**
+     * The token list reads the grant type from its own field now, copy it from the authentication of the tokens
+     * stored before. Only a token which still exists is updated, so that a token removed meanwhile is not written back.
+     */
+    @ChangeSet(order = "07", author = "Louis", id = "backfillAccessTokenGrantType")
+    public void backfillAccessTokenGrantType(MongockTemplate mongoTemplate) {
+        Query missingGrantTypeQuery = Query.query(Criteria.where("grantType").exists(false));
+        try (CloseableIterator<MongoOAuth2AccessToken> tokens = mongoTemplate.stream(missingGrantTypeQuery, MongoOAuth2AccessToken.class)) {
+            tokens.forEachRemaining(token -> {
+                Query query = Query.query(Criteria.where("_id").is(token.getId()).and("grantType").exists(false));
+                // Not an upsert, a token removed meanwhile must not be written back
+                mongoTemplate.updateFirst(query,
+                        Update.update("grantType", token.getAuthentication().getOAuth2Request().getGrantType()),
+                        MongoOAuth2AccessToken.class);
+            });
+        }
+    }
+
+    private Query nestedAuthenticationQuery() {
+        return Query.query(Criteria.where("authentication").type(BSON_TYPE_DOCUMENT));
+    }
+
+    private <T> void rewriteNestedAuthentications(MongockTemplate mongoTemplate, Class<T> entityClass,
+                                                  Function<T, String> idGetter,
+                                                  Function<T, OAuth2Authentication> authenticationGetter) {
+        try (CloseableIterator<T> entities = mongoTemplate.stream(nestedAuthenticationQuery(), entityClass)) {
+            entities.forEachRemaining(entity -> {
+                Query query = nestedAuthenticationQuery().addCriteria(Criteria.where("_id").is(idGetter.apply(entity)));
+                byte[] authentication = OAuth2AuthenticationCodec.encode(authenticationGetter.apply(entity));
+                // Not an upsert, a document removed meanwhile must not be written back
+                mongoTemplate.updateFirst(query, Update.update("authentication", new Binary(authentication)), entityClass);
+            });
+        }
+    }
 }
@@ -6,6 +6,7 @@ import lombok.NoArgsConstructor;
 import lombok.ToString;
 import org.infinity.passport.domain.base.AbstractAuditableDomain;
 import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
@@ -16,26 +17,43 @@ import java.time.Instant;
 
 @ApiModel("访问令牌信息")
 @Document(collection = "MongoOAuth2AccessToken")
+@CompoundIndex(def = "{'clientId': 1, 'userName': 1}")
 @Data
 @ToString(callSuper = true)
 @NoArgsConstructor
 public class MongoOAuth2AccessToken extends AbstractAuditableDomain implements Serializable {
 
-    private static final long                 serialVersionUID = 1L;
+    private static final long                 serialVersionUID             = 1L;
+    public static final  String               AUTHENTICATION_ID_INDEX_NAME = "authenticationId_unique";
     /**
      * AccessTokenId存储在id字段则保证所有客户端共享，一个客户端退出可以退出所有客户端
      */
     private              OAuth2AccessToken    oAuth2AccessToken;
+    /**
+     * Unique so that the token of an authentication can be got or created with an atomic upsert
+     */
+    @Indexed(name = AUTHENTICATION_ID_INDEX_NAME, unique = true)
     private              String               authenticationId;
     private              String               userName;
     private              String               clientId;
+    /**
+     * Copied from the authentication so that the token list does not need to read the authentication
+     */
+    private              String               grantType;
     /**
      * Delete records at a specific time automatically by mongoDB
      */
     @Indexed(expireAfterSeconds = 0)
     private              Instant              expiration;
     private              OAuth2Authentication authentication;
+    @Indexed
     private              String               refreshToken;
+    /**
+     * Written behind by the AccessTokenLastAccessBuffer, so it may lag behind the real last access.
+     * Indexed to find the idle tokens.
+     */
+    @Indexed
+    private              Instant              lastAccessedTime;
 
     @PersistenceConstructor
     public MongoOAuth2AccessToken(OAuth2AccessToken oAuth2AccessToken, OAuth2Authentication authentication,
@@ -45,6 +63,7 @@ public class MongoOAuth2AccessToken extends AbstractAuditableDomain implements S
         this.authenticationId = authenticationId;
         this.userName = authentication.getName();
         this.clientId = authentication.getOAuth2Request().getClientId();
+        this.grantType = authentication.getOAuth2Request().getGrantType();
         this.expiration = oAuth2AccessToken.getExpiration().toInstant();
 
         this.authentication = authentication;
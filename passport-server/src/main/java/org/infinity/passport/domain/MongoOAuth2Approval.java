@@ -4,13 +4,23 @@ import io.swagger.annotations.ApiModel;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.security.oauth2.provider.approval.Approval;
 
 import java.io.Serializable;
 
+/**
+ * The expiresAt field is declared by {@link Approval}, so its index is declared on the class instead of with
+ * {@code @Indexed}, which only applies to the fields of the annotated class.
+ */
 @ApiModel("单点登录授权信息")
 @Document(collection = "MongoOAuth2Approval")
+@CompoundIndexes({
+        @CompoundIndex(def = "{'userId': 1, 'clientId': 1, 'scope': 1}", unique = true),
+        @CompoundIndex(def = "{'expiresAt': 1}")
+})
 @Data
 public class MongoOAuth2Approval extends Approval implements Serializable {
 
@@ -4,11 +4,12 @@ import io.swagger.annotations.ApiModel;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 
 import java.io.Serializable;
+import java.time.Instant;
 
 @ApiModel("单点登录授权码信息")
 @Document(collection = "MongoOAuth2AuthorizationCode")
@@ -18,17 +19,23 @@ public class MongoOAuth2AuthorizationCode implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The authorization code itself, so that it can be looked up and removed by primary key
+     */
     @Id
     private String id;
 
-    private String code;
-
     private OAuth2Authentication authentication;
 
+    /**
+     * Delete the codes nobody redeems at a specific time automatically by mongoDB
+     */
+    @Indexed(expireAfterSeconds = 0)
+    private Instant expiration;
 
-    @PersistenceConstructor
-    public MongoOAuth2AuthorizationCode(String code, OAuth2Authentication authentication) {
-        this.code = code;
+    public MongoOAuth2AuthorizationCode(String code, OAuth2Authentication authentication, Instant expiration) {
+        this.id = code;
         this.authentication = authentication;
+        this.expiration = expiration;
     }
 }
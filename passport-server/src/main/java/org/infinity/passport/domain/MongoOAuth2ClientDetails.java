@@ -28,6 +28,12 @@ public class MongoOAuth2ClientDetails extends BaseClientDetails implements Clien
     @com.fasterxml.jackson.annotation.JsonProperty("raw_client_secret")
     private String rawClientSecret;
 
+    /**
+     * Version stamp which changes on every save, it is used to invalidate the cached client details on all nodes.
+     * It is not changed by an update query, so the client details are only changed by saving the entity.
+     */
+    private String version;
+
     @PersistenceConstructor
     public MongoOAuth2ClientDetails() {
         super();
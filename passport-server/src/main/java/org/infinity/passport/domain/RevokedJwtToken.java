@@ -0,0 +1,38 @@
+package org.infinity.passport.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Spring Data MongoDB collection of the revoked self-contained tokens, a revocation is kept until the token expires.
+ */
+@Document(collection = "RevokedJwtToken")
+@Data
+@NoArgsConstructor
+public class RevokedJwtToken implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * SHA-256 hash of the token value
+     */
+    @Id
+    private String id;
+
+    /**
+     * Expiration time of the token, after which MongoDB removes the revocation
+     */
+    @Indexed(expireAfterSeconds = 0)
+    private Instant expiresAt;
+
+    public RevokedJwtToken(String id, Instant expiresAt) {
+        this.id = id;
+        this.expiresAt = expiresAt;
+    }
+}
@@ -0,0 +1,36 @@
+package org.infinity.passport.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Spring Data MongoDB collection which lets a single node of the cluster run a scheduled task at a time.
+ */
+@Document(collection = "TaskLock")
+@Data
+@NoArgsConstructor
+public class TaskLock implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Task name
+     */
+    @Id
+    private String id;
+
+    /**
+     * ID of the node which holds the lock
+     */
+    private String lockedBy;
+
+    /**
+     * The lock can be taken by another node after this time
+     */
+    private Instant lockedUntil;
+}
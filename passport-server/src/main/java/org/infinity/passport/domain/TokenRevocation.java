@@ -0,0 +1,59 @@
+package org.infinity.passport.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Spring Data MongoDB capped collection which broadcasts the access token revocations and the approval changes to
+ * all the nodes.
+ */
+@Document(collection = "TokenRevocation")
+@Data
+@NoArgsConstructor
+public class TokenRevocation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    private String id;
+
+    /**
+     * Revoked access token value
+     */
+    private String tokenValue;
+
+    /**
+     * User ID of the changed approvals
+     */
+    private String userId;
+
+    /**
+     * Client ID of the changed approvals
+     */
+    private String clientId;
+
+    /**
+     * ID of the node which revoked the access token or changed the approvals
+     */
+    private String nodeId;
+
+    private Instant createdTime;
+
+    public TokenRevocation(String tokenValue, String nodeId) {
+        this.tokenValue = tokenValue;
+        this.nodeId = nodeId;
+        this.createdTime = Instant.now();
+    }
+
+    public TokenRevocation(String userId, String clientId, String nodeId) {
+        this.userId = userId;
+        this.clientId = clientId;
+        this.nodeId = nodeId;
+        this.createdTime = Instant.now();
+    }
+}
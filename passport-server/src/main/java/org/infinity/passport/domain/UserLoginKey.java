@@ -0,0 +1,57 @@
+package org.infinity.passport.domain;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.io.Serializable;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Spring Data MongoDB collection for the UserLoginKey entity.
+ * Every user name, email and mobile number of the users is stored once as primary key pointing at the user,
+ * so that a login is resolved by a single point lookup and can not be claimed by two users.
+ */
+@ApiModel("用户登录标识")
+@Document(collection = "UserLoginKey")
+@Data
+@NoArgsConstructor
+public class UserLoginKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @ApiModelProperty(value = "登录标识")
+    @Id
+    private String id;
+
+    @ApiModelProperty(value = "用户ID", required = true)
+    @Indexed
+    private String userId;
+
+    public UserLoginKey(String loginKey, String userId) {
+        this.id = loginKey;
+        this.userId = userId;
+    }
+
+    /**
+     * Login keys of the user, which are the lower-cased user name, email and mobile number
+     *
+     * @param user user
+     * @return login keys
+     */
+    public static Set<String> of(User user) {
+        return Stream.of(user.getUserName(), user.getEmail(), user.getMobileNo())
+                .filter(StringUtils::isNotEmpty)
+                .map(loginKey -> loginKey.toLowerCase(Locale.ENGLISH))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+}
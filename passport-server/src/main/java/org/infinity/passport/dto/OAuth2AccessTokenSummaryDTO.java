@@ -0,0 +1,49 @@
+package org.infinity.passport.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+import java.time.Instant;
+
+/**
+ * A DTO representing an access token stored in MongoDB without the embedded authentication, which is the largest part
+ * of the document and is only needed for token validation.
+ */
+@ApiModel("访问令牌摘要DTO")
+@Data
+@NoArgsConstructor
+public class OAuth2AccessTokenSummaryDTO {
+    public static final String[] FIELD_NAMES = {"oAuth2AccessToken", "authenticationId", "userName", "clientId",
+            "grantType", "expiration", "refreshToken", "lastAccessedTime", "createdBy", "createdTime", "modifiedBy",
+            "modifiedTime"};
+
+    @ApiModelProperty("ID")
+    private String            id;
+    @ApiModelProperty("访问令牌")
+    private OAuth2AccessToken oAuth2AccessToken;
+    @ApiModelProperty("认证ID")
+    private String            authenticationId;
+    @ApiModelProperty("用户名")
+    private String            userName;
+    @ApiModelProperty("客户端ID")
+    private String            clientId;
+    @ApiModelProperty("授权类型")
+    private String            grantType;
+    @ApiModelProperty("过期时间")
+    private Instant           expiration;
+    @ApiModelProperty("刷新令牌")
+    private String            refreshToken;
+    @ApiModelProperty("最近访问时间")
+    private Instant           lastAccessedTime;
+    @ApiModelProperty("创建者")
+    private String            createdBy;
+    @ApiModelProperty("创建时间")
+    private Instant           createdTime;
+    @ApiModelProperty("更新者")
+    private String            modifiedBy;
+    @ApiModelProperty("更新时间")
+    private Instant           modifiedTime;
+}
@@ -0,0 +1,24 @@
+package org.infinity.passport.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * A DTO representing the access tokens to be introspected in bulk
+ */
+@ApiModel("批量令牌检查DTO")
+@Data
+public class TokenIntrospectionDTO {
+    public static final int MAX_TOKENS = 100;
+
+    @ApiModelProperty(value = "访问令牌列表", required = true)
+    @NotEmpty
+    @Size(max = MAX_TOKENS)
+    private List<@NotBlank String> tokens;
+}
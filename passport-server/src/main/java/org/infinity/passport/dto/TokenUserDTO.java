@@ -0,0 +1,40 @@
+package org.infinity.passport.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+import org.infinity.passport.config.oauth2.SecurityUser;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A DTO representing the user bound to an access token
+ */
+@ApiModel("令牌用户DTO")
+@Data
+public class TokenUserDTO {
+    @ApiModelProperty("用户ID")
+    private String      userId;
+    @ApiModelProperty("用户名")
+    private String      userName;
+    @ApiModelProperty("客户端ID")
+    private String      clientId;
+    @ApiModelProperty("授权范围")
+    private Set<String> scope;
+    @ApiModelProperty("权限")
+    private Set<String> authorities;
+
+    public TokenUserDTO(OAuth2Authentication authentication) {
+        if (authentication.getPrincipal() instanceof SecurityUser) {
+            this.userId = ((SecurityUser) authentication.getPrincipal()).getUserId();
+        }
+        this.userName = authentication.getName();
+        this.clientId = authentication.getOAuth2Request().getClientId();
+        this.scope = authentication.getOAuth2Request().getScope();
+        this.authorities = authentication.getAuthorities().stream().map(GrantedAuthority::getAuthority)
+                .collect(Collectors.toSet());
+    }
+}
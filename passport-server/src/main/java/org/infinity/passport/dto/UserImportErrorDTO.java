@@ -0,0 +1,27 @@
+package org.infinity.passport.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * A DTO representing a row of the user import which could not be imported
+ */
+@ApiModel("用户导入错误DTO")
+@Data
+@Builder
+public class UserImportErrorDTO implements Serializable {
+    private static final long serialVersionUID = -3203425874869158013L;
+
+    @ApiModelProperty("行号")
+    private long   line;
+
+    @ApiModelProperty("用户名")
+    private String userName;
+
+    @ApiModelProperty("错误信息")
+    private String message;
+}
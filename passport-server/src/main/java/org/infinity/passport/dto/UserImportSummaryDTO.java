@@ -0,0 +1,30 @@
+package org.infinity.passport.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * A DTO representing the result of a user import, it is the last line of the import response
+ */
+@ApiModel("用户导入结果DTO")
+@Data
+@Builder
+public class UserImportSummaryDTO implements Serializable {
+    private static final long serialVersionUID = 2458139466723658437L;
+
+    @ApiModelProperty("总行数")
+    private long total;
+
+    @ApiModelProperty("导入成功数")
+    private long imported;
+
+    @ApiModelProperty("导入失败数")
+    private long failed;
+
+    @ApiModelProperty("耗时(毫秒)")
+    private long elapsedMillis;
+}
@@ -0,0 +1,28 @@
+package org.infinity.passport.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published on every node when an access or refresh token is revoked, either locally or by another node.
+ */
+public class AccessTokenRevokedEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 2516728395717382011L;
+
+    private final String tokenValue;
+
+    /**
+     * Create a new {@code ApplicationEvent}.
+     *
+     * @param source     the object on which the event initially occurred or with
+     *                   which the event is associated (never {@code null})
+     * @param tokenValue revoked token value
+     */
+    public AccessTokenRevokedEvent(Object source, String tokenValue) {
+        super(source);
+        this.tokenValue = tokenValue;
+    }
+
+    public String getTokenValue() {
+        return tokenValue;
+    }
+}
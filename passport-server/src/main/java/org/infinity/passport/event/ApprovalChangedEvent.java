@@ -0,0 +1,35 @@
+package org.infinity.passport.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published on every other node when the approvals of a user for a client are changed by a node.
+ */
+public class ApprovalChangedEvent extends ApplicationEvent {
+    private static final long serialVersionUID = -3927846170593165021L;
+
+    private final String userId;
+    private final String clientId;
+
+    /**
+     * Create a new {@code ApplicationEvent}.
+     *
+     * @param source   the object on which the event initially occurred or with
+     *                 which the event is associated (never {@code null})
+     * @param userId   user ID
+     * @param clientId client ID
+     */
+    public ApprovalChangedEvent(Object source, String userId, String clientId) {
+        super(source);
+        this.userId = userId;
+        this.clientId = clientId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+}
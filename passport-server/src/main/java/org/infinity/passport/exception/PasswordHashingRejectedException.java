@@ -0,0 +1,13 @@
+package org.infinity.passport.exception;
+
+/**
+ * Thrown when the password hashing executor is saturated, it is translated to HTTP 503.
+ */
+public class PasswordHashingRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = -2968720472352940571L;
+
+    public PasswordHashingRejectedException(String message) {
+        super(message);
+    }
+}
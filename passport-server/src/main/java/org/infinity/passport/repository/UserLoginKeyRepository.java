@@ -0,0 +1,19 @@
+package org.infinity.passport.repository;
+
+import org.infinity.passport.domain.UserLoginKey;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Spring Data MongoDB repository for the UserLoginKey entity.
+ */
+@Repository
+public interface UserLoginKeyRepository extends MongoRepository<UserLoginKey, String> {
+
+    List<UserLoginKey> findByUserId(String userId);
+
+    void deleteByUserId(String userId);
+
+}
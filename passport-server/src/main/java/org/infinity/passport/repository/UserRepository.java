@@ -26,8 +26,6 @@ public interface UserRepository extends MongoRepository<User, String> {
 
     Optional<User> findOneByMobileNo(String mobileNo);
 
-    Optional<User> findOneByUserNameOrEmailOrMobileNo(String userName, String email, String mobileNo);
-
     Page<User> findByUserNameOrEmailOrMobileNo(Pageable pageable, String userName, String email, String mobileNo);
 
     Optional<User> findOneByResetKey(String resetKey);
@@ -0,0 +1,39 @@
+package org.infinity.passport.service;
+
+import org.infinity.passport.dto.UserImportErrorDTO;
+import org.infinity.passport.dto.UserImportSummaryDTO;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+public interface UserImportService {
+
+    enum Format {
+        /**
+         * One JSON user per line
+         */
+        NDJSON,
+        /**
+         * Comma separated values with a header line naming the user fields, authorities are separated by '|'.
+         * A value may be enclosed in double quotes to contain commas, but it can not contain line breaks.
+         */
+        CSV
+    }
+
+    /**
+     * Import the users read line by line in batches, the rows which can not be imported are reported to the error
+     * consumer once their batch is written and the others are still imported. An exception of the error consumer
+     * stops the import between two batches. Every row must contain its password, since the imported users are not
+     * notified by email.
+     *
+     * @param reader        reader of the upload
+     * @param format        format of the upload
+     * @param activated     whether to activate the imported users
+     * @param errorConsumer consumer of the rows which can not be imported
+     * @return summary
+     * @throws IOException if the upload can not be read
+     */
+    UserImportSummaryDTO importUsers(BufferedReader reader, Format format, boolean activated,
+                                     Consumer<UserImportErrorDTO> errorConsumer) throws IOException;
+}
@@ -11,6 +11,17 @@ public interface UserService {
 
     void changePassword(UserNameAndPasswordDTO dto);
 
+    /**
+     * Replace the password hash of the user with the one using the current algorithm and cost, unless the password
+     * has been changed in the meantime.
+     *
+     * @param userName             user name
+     * @param oldPasswordHash      password hash verified on login
+     * @param upgradedPasswordHash upgraded password hash
+     * @return true if upgraded
+     */
+    boolean upgradePasswordHash(String userName, String oldPasswordHash, String upgradedPasswordHash);
+
     User insert(User user, String rawPassword);
 
     void update(User user);
@@ -21,8 +32,22 @@ public interface UserService {
 
     Optional<User> findOneByMobileNo(String mobileNo);
 
+    /**
+     * Find the user by user name, email or mobile number through the login keys.
+     *
+     * @param login user name, email or mobile number
+     * @return user
+     */
     Optional<User> findOneByLogin(String login);
 
+    /**
+     * Find the user by user name, email or mobile number together with the authority names in one query.
+     *
+     * @param login user name, email or mobile number
+     * @return user with the authorities
+     */
+    Optional<User> findOneWithAuthoritiesByLogin(String login);
+
     Page<User> findByLogin(Pageable pageable, String login);
 
     Optional<User> activateRegistration(String activationKey);
@@ -1,44 +1,71 @@
 package org.infinity.passport.service.impl;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.infinity.passport.config.oauth2.GrantedAuthorityRegistry;
 import org.infinity.passport.config.oauth2.SecurityUser;
+import org.infinity.passport.config.oauth2.SingleFlight;
+import org.infinity.passport.config.oauth2.UserDetailsCache;
 import org.infinity.passport.domain.User;
 import org.infinity.passport.exception.UserDisabledException;
 import org.infinity.passport.exception.UserNotActivatedException;
-import org.infinity.passport.repository.UserAuthorityRepository;
 import org.infinity.passport.service.UserService;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
  * Authenticate a user from the database.
  */
 @Service
 @Slf4j
-public class SpringSecurityUserDetailsServiceImpl implements org.springframework.security.core.userdetails.UserDetailsService {
+public class SpringSecurityUserDetailsServiceImpl implements org.springframework.security.core.userdetails.UserDetailsService,
+        UserDetailsPasswordService {
 
-    private final UserService             userService;
-    private final UserAuthorityRepository userAuthorityRepository;
+    public static final String SINGLE_FLIGHT_NAME = "user-details";
+
+    private final UserService                        userService;
+    private final UserDetailsCache                   userDetailsCache;
+    private final SingleFlight<String, SecurityUser> userLoads;
 
     // Use @Lazy to fix dependencies problems
     public SpringSecurityUserDetailsServiceImpl(@Lazy UserService userService,
-                                                UserAuthorityRepository userAuthorityRepository) {
+                                                UserDetailsCache userDetailsCache,
+                                                MeterRegistry meterRegistry) {
         this.userService = userService;
-        this.userAuthorityRepository = userAuthorityRepository;
+        this.userDetailsCache = userDetailsCache;
+        this.userLoads = new SingleFlight<>(SINGLE_FLIGHT_NAME, meterRegistry);
     }
 
+    /**
+     * The user is served from the short-lived cache, and concurrent authentications of the same login on cache miss
+     * share one load from the database.
+     */
     @Override
     // @Transactional
     public UserDetails loadUserByUsername(final String login) {
         log.debug("Authenticating {}", login);
-        User userFromDatabase = userService.findOneByLogin(login)
+        SecurityUser user = userDetailsCache.get(login, key -> userLoads.execute(key, this::loadUser));
+        // Every caller gets its own copy, because the credentials of the user details are erased after authentication
+        return new SecurityUser(user.getUserId(), user.getUsername(), user.getPassword(), user.getAuthorities());
+    }
+
+    /**
+     * Called after a successful login whose password hash uses an outdated algorithm or cost.
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        userService.upgradePasswordHash(user.getUsername(), user.getPassword(), newPassword);
+        return new SecurityUser(((SecurityUser) user).getUserId(), user.getUsername(), newPassword, user.getAuthorities());
+    }
+
+    private SecurityUser loadUser(String login) {
+        User userFromDatabase = userService.findOneWithAuthoritiesByLogin(login)
                 .orElseThrow(() -> new UsernameNotFoundException("User " + login + " was not found in the database"));
 
         if (!userFromDatabase.getActivated()) {
@@ -49,9 +76,7 @@ public class SpringSecurityUserDetailsServiceImpl implements org.springframework
             throw new UserDisabledException("User " + login + " was disabled");
         }
 
-        List<GrantedAuthority> grantedAuthorities = userAuthorityRepository.findByUserId(userFromDatabase.getId())
-                .stream().map(userAuthority -> new SimpleGrantedAuthority(userAuthority.getAuthorityName()))
-                .collect(Collectors.toList());
+        Set<GrantedAuthority> grantedAuthorities = GrantedAuthorityRegistry.setOf(userFromDatabase.getAuthorities());
         return new SecurityUser(userFromDatabase.getId(), userFromDatabase.getUserName(),
                 userFromDatabase.getPasswordHash(), grantedAuthorities);
     }
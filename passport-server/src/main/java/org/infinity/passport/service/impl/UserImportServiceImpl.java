@@ -0,0 +1,403 @@
+package org.infinity.passport.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.bulk.BulkWriteError;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.infinity.passport.component.MessageCreator;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.User;
+import org.infinity.passport.domain.UserAuthority;
+import org.infinity.passport.domain.UserLoginKey;
+import org.infinity.passport.dto.ManagedUserDTO;
+import org.infinity.passport.dto.UserImportErrorDTO;
+import org.infinity.passport.dto.UserImportSummaryDTO;
+import org.infinity.passport.exception.PasswordHashingRejectedException;
+import org.infinity.passport.service.UserImportService;
+import org.infinity.passport.utils.RandomUtils;
+import org.infinity.passport.utils.SecurityUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Imports the users in batches instead of one by one: each batch checks the duplicated logins with one $in query on
+ * the login keys, hashes the passwords in parallel on a fork-join pool, and writes the login keys, users and
+ * authorities with unordered bulk inserts. The login keys are inserted first, so that a login claimed concurrently
+ * is still rejected by their primary key.
+ */
+@Service
+@Slf4j
+public class UserImportServiceImpl implements UserImportService {
+
+    private static final String AUTHORITY_SEPARATOR = "|";
+    private static final String DUPLICATED_DATA_CODE = "EP5101";
+    private static final String SERVER_BUSY_CODE     = "ES7003";
+    private static final Set<String> CSV_COLUMNS = new HashSet<>(Arrays.asList("userName", "firstName", "lastName",
+            "email", "mobileNo", "password", "authorities", "remarks"));
+
+    private final MongoTemplate   mongoTemplate;
+    private final PasswordEncoder passwordEncoder;
+    private final Validator       validator;
+    private final ObjectMapper    objectMapper;
+    private final MessageCreator  messageCreator;
+    private final int             batchSize;
+    private final ForkJoinPool    hashingPool;
+
+    public UserImportServiceImpl(MongoTemplate mongoTemplate,
+                                 PasswordEncoder passwordEncoder,
+                                 Validator validator,
+                                 ObjectMapper objectMapper,
+                                 MessageCreator messageCreator,
+                                 ApplicationProperties applicationProperties) {
+        ApplicationProperties.UserImport userImport = applicationProperties.getUserImport();
+        this.mongoTemplate = mongoTemplate;
+        this.passwordEncoder = passwordEncoder;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.messageCreator = messageCreator;
+        this.batchSize = userImport.getBatchSize();
+        this.hashingPool = new ForkJoinPool(userImport.getParallelism() > 0 ?
+                userImport.getParallelism() : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        hashingPool.shutdown();
+    }
+
+    @Override
+    public UserImportSummaryDTO importUsers(BufferedReader reader, Format format, boolean activated,
+                                            Consumer<UserImportErrorDTO> errorConsumer) throws IOException {
+        long startTime = System.currentTimeMillis();
+        String currentUserName = SecurityUtils.getCurrentUserName();
+        long lineNo = 0;
+        String[] columns = null;
+        if (format == Format.CSV) {
+            String header = reader.readLine();
+            lineNo++;
+            columns = header == null ? new String[0] : splitCsv(header).toArray(new String[0]);
+            List<String> unknownColumns = Arrays.stream(columns).map(String::trim)
+                    .filter(column -> !CSV_COLUMNS.contains(column)).collect(Collectors.toList());
+            if (!unknownColumns.isEmpty()) {
+                errorConsumer.accept(UserImportErrorDTO.builder().line(lineNo).message("Unknown columns: " + unknownColumns).build());
+                return UserImportSummaryDTO.builder().elapsedMillis(System.currentTimeMillis() - startTime).build();
+            }
+        }
+
+        Set<String> seenLoginKeys = new HashSet<>();
+        List<Row> batch = new ArrayList<>(batchSize);
+        long total = 0;
+        long imported = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+            total++;
+            batch.add(parseRow(lineNo, line, columns, activated, currentUserName, seenLoginKeys));
+            if (batch.size() >= batchSize) {
+                imported += importBatch(batch, errorConsumer);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            imported += importBatch(batch, errorConsumer);
+        }
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+        log.info("Imported {} of {} users in {} ms", imported, total, elapsedMillis);
+        return UserImportSummaryDTO.builder().total(total).imported(imported).failed(total - imported)
+                .elapsedMillis(elapsedMillis).build();
+    }
+
+    private Row parseRow(long lineNo, String line, String[] columns, boolean activated, String currentUserName,
+                         Set<String> seenLoginKeys) {
+        Row row = new Row(lineNo);
+        ManagedUserDTO dto;
+        try {
+            dto = columns == null ? objectMapper.readValue(line, ManagedUserDTO.class) : parseCsv(line, columns);
+        } catch (IOException | RuntimeException e) {
+            row.error = "Unparsable row: " + e.getMessage();
+            return row;
+        }
+        row.userName = dto.getUserName();
+        // The password is required, no imported user gets a well-known default password
+        Set<ConstraintViolation<ManagedUserDTO>> violations = validator.validate(dto);
+        if (!violations.isEmpty()) {
+            row.error = violations.stream().map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted().collect(Collectors.joining(", "));
+            return row;
+        }
+        if (CollectionUtils.isNotEmpty(dto.getAuthorities()) && !dto.getAuthorities().contains(Authority.USER)) {
+            row.error = "[ROLE_USER] authority must be specified!";
+            return row;
+        }
+
+        User user = dto.toUser();
+        // Assign the ID in advance to refer to the user from its login keys and authorities in the same batch
+        user.setId(ObjectId.get().toHexString());
+        user.setUserName(user.getUserName().toLowerCase(Locale.ENGLISH));
+        user.setEmail(user.getEmail().toLowerCase(Locale.ENGLISH));
+        user.setActivated(activated);
+        user.setActivationKey(activated ? null : RandomUtils.generateActivationKey());
+        user.setResetKey(RandomUtils.generateResetKey());
+        user.setResetTime(Instant.now());
+        user.setEnabled(true);
+        // The auditing only fills in the creation of the entities without ID
+        user.setCreatedBy(currentUserName);
+        user.setCreatedTime(Instant.now());
+        user.setModifiedBy(currentUserName);
+        user.setModifiedTime(user.getCreatedTime());
+        row.user = user;
+        row.password = dto.getPassword();
+        row.loginKeys = UserLoginKey.of(user);
+
+        List<String> duplicatedKeys = row.loginKeys.stream().filter(seenLoginKeys::contains).collect(Collectors.toList());
+        seenLoginKeys.addAll(row.loginKeys);
+        if (!duplicatedKeys.isEmpty()) {
+            row.error = messageCreator.getMessage(DUPLICATED_DATA_CODE, duplicatedKeys);
+        }
+        return row;
+    }
+
+    private ManagedUserDTO parseCsv(String line, String[] columns) {
+        List<String> values = splitCsv(line);
+        if (values.size() != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " columns but found " + values.size());
+        }
+        ManagedUserDTO dto = new ManagedUserDTO();
+        for (int i = 0; i < columns.length; i++) {
+            String value = StringUtils.trimToNull(values.get(i));
+            switch (columns[i].trim()) {
+                case "userName":
+                    dto.setUserName(value);
+                    break;
+                case "firstName":
+                    dto.setFirstName(value);
+                    break;
+                case "lastName":
+                    dto.setLastName(value);
+                    break;
+                case "email":
+                    dto.setEmail(value);
+                    break;
+                case "mobileNo":
+                    dto.setMobileNo(value);
+                    break;
+                case "password":
+                    dto.setPassword(value);
+                    break;
+                case "authorities":
+                    dto.setAuthorities(value == null ? null :
+                            new HashSet<>(Arrays.asList(StringUtils.split(value, AUTHORITY_SEPARATOR))));
+                    break;
+                case "remarks":
+                    dto.setRemarks(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown column: " + columns[i]);
+            }
+        }
+        return dto;
+    }
+
+    /**
+     * Split a CSV line into its values, a value enclosed in double quotes may contain commas and doubled double quotes.
+     * A quoted value can not span several lines, since the upload is read line by line.
+     *
+     * @param line CSV line
+     * @return values
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append(c);
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted value");
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Import the valid rows of the batch and report the others once all the writes of the batch are done, so that a
+     * failing error consumer, e.g. a closed response stream, never leaves a user half imported.
+     *
+     * @param batch         rows
+     * @param errorConsumer consumer of the rows which can not be imported
+     * @return number of imported users
+     */
+    private int importBatch(List<Row> batch, Consumer<UserImportErrorDTO> errorConsumer) {
+        List<UserImportErrorDTO> errors = new ArrayList<>();
+        int imported = writeBatch(batch, errors::add);
+        errors.forEach(errorConsumer);
+        return imported;
+    }
+
+    private int writeBatch(List<Row> batch, Consumer<UserImportErrorDTO> errorConsumer) {
+        List<Row> rows = reportErrors(batch, errorConsumer);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        // Set-based duplication check against the logins of the existing users
+        Query query = Query.query(Criteria.where("_id").in(rows.stream().flatMap(row -> row.loginKeys.stream())
+                .collect(Collectors.toList())));
+        query.fields().include("_id");
+        Set<String> existingKeys = mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(UserLoginKey.class))
+                .stream().map(document -> document.getString("_id")).collect(Collectors.toSet());
+        rows.forEach(row -> {
+            List<String> duplicatedKeys = row.loginKeys.stream().filter(existingKeys::contains).collect(Collectors.toList());
+            if (!duplicatedKeys.isEmpty()) {
+                row.error = messageCreator.getMessage(DUPLICATED_DATA_CODE, duplicatedKeys);
+            }
+        });
+        rows = reportErrors(rows, errorConsumer);
+
+        // Hash in parallel, the password encoder bounds the number of concurrent hashes of the whole server
+        List<Row> hashingRows = rows;
+        hashingPool.submit(() -> hashingRows.parallelStream().forEach(row -> {
+            try {
+                row.user.setPasswordHash(passwordEncoder.encode(row.password));
+            } catch (PasswordHashingRejectedException e) {
+                row.error = messageCreator.getMessage(SERVER_BUSY_CODE);
+            }
+        })).join();
+        rows = reportErrors(rows, errorConsumer);
+
+        // Claim the logins first, a login claimed concurrently fails here
+        BulkOperations loginKeyOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserLoginKey.class);
+        List<Row> loginKeyRows = new ArrayList<>();
+        rows.forEach(row -> row.loginKeys.forEach(loginKey -> {
+            loginKeyOperations.insert(new UserLoginKey(loginKey, row.user.getId()));
+            loginKeyRows.add(row);
+        }));
+        executeBulkInsert(loginKeyOperations, loginKeyRows, error -> messageCreator.getMessage(DUPLICATED_DATA_CODE, error.getMessage()));
+        rows = reportErrors(rows, errorConsumer);
+
+        BulkOperations userOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+        rows.forEach(row -> userOperations.insert(row.user));
+        executeBulkInsert(userOperations, rows, error -> messageCreator.getMessage(DUPLICATED_DATA_CODE, error.getMessage()));
+        rows = reportErrors(rows, errorConsumer);
+
+        BulkOperations userAuthorityOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserAuthority.class);
+        List<Row> userAuthorityRows = new ArrayList<>();
+        rows.stream().filter(row -> CollectionUtils.isNotEmpty(row.user.getAuthorities()))
+                .forEach(row -> row.user.getAuthorities().forEach(authorityName -> {
+                    UserAuthority userAuthority = new UserAuthority(row.user.getId(), authorityName);
+                    userAuthority.setCreatedBy(row.user.getCreatedBy());
+                    userAuthority.setCreatedTime(row.user.getCreatedTime());
+                    userAuthority.setModifiedBy(row.user.getModifiedBy());
+                    userAuthority.setModifiedTime(row.user.getModifiedTime());
+                    userAuthorityOperations.insert(userAuthority);
+                    userAuthorityRows.add(row);
+                }));
+        executeBulkInsert(userAuthorityOperations, userAuthorityRows, BulkWriteError::getMessage);
+        rows = reportErrors(rows, errorConsumer);
+        return rows.size();
+    }
+
+    /**
+     * Execute the unordered bulk insert, the rows of the failed inserts are marked as failed and everything already
+     * inserted for them is removed, so that no user is left without its login keys or authorities.
+     *
+     * @param bulkOperations bulk insert
+     * @param rows           row of each insert
+     * @param errorMessage   error message of a failed insert
+     */
+    private void executeBulkInsert(BulkOperations bulkOperations, List<Row> rows,
+                                   Function<BulkWriteError, String> errorMessage) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Set<String> failedUserIds = new HashSet<>();
+        try {
+            bulkOperations.execute();
+        } catch (BulkOperationException e) {
+            e.getErrors().forEach(error -> {
+                Row row = rows.get(error.getIndex());
+                row.error = errorMessage.apply(error);
+                failedUserIds.add(row.user.getId());
+            });
+        } catch (DataAccessException e) {
+            // The whole batch failed, but some of the inserts may have been applied
+            log.error("Failed to import users in bulk", e);
+            rows.forEach(row -> {
+                row.error = e.getMostSpecificCause().getMessage();
+                failedUserIds.add(row.user.getId());
+            });
+        }
+        if (!failedUserIds.isEmpty()) {
+            mongoTemplate.remove(Query.query(Criteria.where("userId").in(failedUserIds)), UserAuthority.class);
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(failedUserIds)), User.class);
+            mongoTemplate.remove(Query.query(Criteria.where("userId").in(failedUserIds)), UserLoginKey.class);
+        }
+    }
+
+    private List<Row> reportErrors(List<Row> rows, Consumer<UserImportErrorDTO> errorConsumer) {
+        List<Row> validRows = new ArrayList<>(rows.size());
+        rows.forEach(row -> {
+            if (row.error == null) {
+                validRows.add(row);
+            } else {
+                errorConsumer.accept(UserImportErrorDTO.builder().line(row.line).userName(row.userName).message(row.error).build());
+            }
+        });
+        return validRows;
+    }
+
+    private static class Row {
+        private final long        line;
+        private       String      userName;
+        private       User        user;
+        private       String      password;
+        private       Set<String> loginKeys;
+        private       String      error;
+
+        private Row(long line) {
+            this.line = line;
+        }
+    }
+}
@@ -3,28 +3,43 @@ package org.infinity.passport.service.impl;
 import com.google.common.collect.ImmutableMap;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
+import org.bson.Document;
 import org.infinity.passport.component.MessageCreator;
+import org.infinity.passport.config.oauth2.UserDetailsCache;
 import org.infinity.passport.domain.Authority;
 import org.infinity.passport.domain.User;
 import org.infinity.passport.domain.UserAuthority;
+import org.infinity.passport.domain.UserLoginKey;
 import org.infinity.passport.dto.UserNameAndPasswordDTO;
 import org.infinity.passport.exception.DuplicationException;
 import org.infinity.passport.exception.NoDataFoundException;
 import org.infinity.passport.repository.UserAuthorityRepository;
+import org.infinity.passport.repository.UserLoginKeyRepository;
 import org.infinity.passport.repository.UserRepository;
 import org.infinity.passport.service.UserService;
 import org.infinity.passport.utils.RandomUtils;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.thymeleaf.util.StringUtils;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -32,17 +47,26 @@ public class UserServiceImpl implements UserService {
 
     private final UserRepository          userRepository;
     private final UserAuthorityRepository userAuthorityRepository;
+    private final UserLoginKeyRepository  userLoginKeyRepository;
     private final PasswordEncoder         passwordEncoder;
     private final MessageCreator          messageCreator;
+    private final MongoTemplate           mongoTemplate;
+    private final UserDetailsCache        userDetailsCache;
 
     public UserServiceImpl(UserRepository userRepository,
                            UserAuthorityRepository userAuthorityRepository,
+                           UserLoginKeyRepository userLoginKeyRepository,
                            PasswordEncoder passwordEncoder,
-                           MessageCreator messageCreator) {
+                           MessageCreator messageCreator,
+                           MongoTemplate mongoTemplate,
+                           UserDetailsCache userDetailsCache) {
         this.userRepository = userRepository;
         this.userAuthorityRepository = userAuthorityRepository;
+        this.userLoginKeyRepository = userLoginKeyRepository;
         this.passwordEncoder = passwordEncoder;
         this.messageCreator = messageCreator;
+        this.mongoTemplate = mongoTemplate;
+        this.userDetailsCache = userDetailsCache;
     }
 
     // private void removeUserToken(User user) {
@@ -58,10 +82,23 @@ public class UserServiceImpl implements UserService {
         userRepository.findOneByUserName(dto.getUserName()).ifPresent(user -> {
             user.setPasswordHash(passwordEncoder.encode(dto.getNewPassword()));
             userRepository.save(user);
+            userDetailsCache.evict(user.getId());
             log.debug("Changed password for user: {}", user);
         });
     }
 
+    @Override
+    public boolean upgradePasswordHash(String userName, String oldPasswordHash, String upgradedPasswordHash) {
+        Query query = Query.query(Criteria.where("userName").is(userName).and("passwordHash").is(oldPasswordHash));
+        User user = mongoTemplate.findAndModify(query, Update.update("passwordHash", upgradedPasswordHash), User.class);
+        if (user == null) {
+            return false;
+        }
+        userDetailsCache.evict(user.getId());
+        log.debug("Upgraded password hash for user: {}", userName);
+        return true;
+    }
+
     @Override
     public User insert(User user, String rawPassword) {
         Optional<User> existingUser = userRepository.findOneByUserName(user.getUserName().toLowerCase(Locale.ENGLISH));
@@ -84,6 +121,14 @@ public class UserServiceImpl implements UserService {
         user.setResetTime(Instant.now());
         user.setEnabled(true);
         userRepository.save(user);
+        try {
+            saveLoginKeys(user);
+        } catch (DuplicationException e) {
+            // Another user has claimed the same login concurrently
+            userLoginKeyRepository.deleteByUserId(user.getId());
+            userRepository.deleteById(user.getId());
+            throw e;
+        }
 
         if (CollectionUtils.isNotEmpty(user.getAuthorities())) {
             if (!user.getAuthorities().contains(Authority.USER)) {
@@ -118,7 +163,9 @@ public class UserServiceImpl implements UserService {
             u.setMobileNo(user.getMobileNo());
             u.setEnabled(user.getEnabled());
             u.setRemarks(user.getRemarks());
+            saveLoginKeys(u);
             userRepository.save(u);
+            userDetailsCache.evict(u.getId());
             log.debug("Updated user: {}", user);
 
             if (CollectionUtils.isNotEmpty(user.getAuthorities())) {
@@ -127,6 +174,7 @@ public class UserServiceImpl implements UserService {
                 }
                 userAuthorityRepository.deleteByUserId(user.getId());
                 user.getAuthorities().forEach(authorityName -> userAuthorityRepository.insert(new UserAuthority(user.getId(), authorityName)));
+                userDetailsCache.evict(u.getId());
                 log.debug("Updated user authorities");
             }
             return u;
@@ -155,8 +203,30 @@ public class UserServiceImpl implements UserService {
     @Override
     public Optional<User> findOneByLogin(String login) {
         Assert.hasText(login, "it must not be null, empty, or blank");
-        return userRepository.findOneByUserNameOrEmailOrMobileNo(login.toLowerCase(Locale.ENGLISH),
-                login.toLowerCase(Locale.ENGLISH), login.toLowerCase(Locale.ENGLISH));
+        return userLoginKeyRepository.findById(login.toLowerCase(Locale.ENGLISH))
+                .flatMap(loginKey -> userRepository.findById(loginKey.getUserId()));
+    }
+
+    @Override
+    public Optional<User> findOneWithAuthoritiesByLogin(String login) {
+        Assert.hasText(login, "it must not be null, empty, or blank");
+        String lowerCaseLogin = login.toLowerCase(Locale.ENGLISH);
+        // Start from the login key by primary key, the user ID is stored as string, so convert it before joining on _id
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("_id").is(lowerCaseLogin)),
+                Aggregation.lookup(mongoTemplate.getCollectionName(UserAuthority.class), "userId", "userId", "userAuthorities"),
+                Aggregation.addFields().addFieldWithValue("userObjectId", ConvertOperators.valueOf("userId").convertToObjectId()).build(),
+                Aggregation.lookup(mongoTemplate.getCollectionName(User.class), "userObjectId", "_id", "users"));
+        Document document = mongoTemplate.aggregate(aggregation, mongoTemplate.getCollectionName(UserLoginKey.class), Document.class)
+                .getUniqueMappedResult();
+        if (document == null || document.getList("users", Document.class).isEmpty()) {
+            return Optional.empty();
+        }
+        User user = mongoTemplate.getConverter().read(User.class, document.getList("users", Document.class).get(0));
+        user.setAuthorities(document.getList("userAuthorities", Document.class).stream()
+                .map(userAuthority -> userAuthority.getString("authorityName"))
+                .collect(Collectors.toSet()));
+        return Optional.of(user);
     }
 
     @Override
@@ -173,6 +243,7 @@ public class UserServiceImpl implements UserService {
             user.setActivated(true);
             user.setActivationKey(null);
             userRepository.save(user);
+            userDetailsCache.evict(user.getId());
             log.debug("Activated user: {}", user);
             return user;
         });
@@ -185,6 +256,7 @@ public class UserServiceImpl implements UserService {
         user.setResetKey(RandomUtils.generateResetKey());
         user.setResetTime(Instant.now());
         userRepository.save(user);
+        userDetailsCache.evict(user.getId());
         log.debug("Requested reset user password for reset key {}", resetKey);
         return user;
     }
@@ -198,6 +270,7 @@ public class UserServiceImpl implements UserService {
         user.setResetKey(null);
         user.setResetTime(null);
         userRepository.save(user);
+        userDetailsCache.evict(user.getId());
         log.debug("Reset user password for reset key {}", resetKey);
         return user;
     }
@@ -207,5 +280,33 @@ public class UserServiceImpl implements UserService {
         User user = findOneByUserName(userName);
         userRepository.deleteById(user.getId());
         userAuthorityRepository.deleteByUserId(user.getId());
+        userLoginKeyRepository.deleteByUserId(user.getId());
+        userDetailsCache.evict(user.getId());
+    }
+
+    /**
+     * Insert the new login keys of the user before removing the stale ones, so that the user can always log in
+     * and a login claimed by another user is rejected by the primary key. If any new login is rejected, the new
+     * keys inserted before it are removed again, so that they can not be used to log in.
+     *
+     * @param user user
+     */
+    private void saveLoginKeys(User user) {
+        Set<String> loginKeys = UserLoginKey.of(user);
+        List<UserLoginKey> existingLoginKeys = userLoginKeyRepository.findByUserId(user.getId());
+        List<UserLoginKey> insertedLoginKeys = new ArrayList<>();
+        loginKeys.stream()
+                .filter(loginKey -> existingLoginKeys.stream().noneMatch(existing -> existing.getId().equals(loginKey)))
+                .forEach(loginKey -> {
+                    try {
+                        insertedLoginKeys.add(userLoginKeyRepository.insert(new UserLoginKey(loginKey, user.getId())));
+                    } catch (DuplicateKeyException e) {
+                        userLoginKeyRepository.deleteAll(insertedLoginKeys);
+                        throw new DuplicationException(ImmutableMap.of("login", loginKey));
+                    }
+                });
+        existingLoginKeys.stream()
+                .filter(existing -> !loginKeys.contains(existing.getId()))
+                .forEach(userLoginKeyRepository::delete);
     }
 }
\ No newline at end of file
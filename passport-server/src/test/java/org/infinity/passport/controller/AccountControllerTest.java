@@ -0,0 +1,107 @@
+package org.infinity.passport.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.infinity.passport.config.oauth2.BatchTokenStore;
+import org.infinity.passport.config.oauth2.SecurityUser;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.infinity.passport.dto.TokenIntrospectionDTO;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Verifies the bulk introspection of access tokens.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+@WithMockUser(authorities = Authority.DEVELOPER)
+public class AccountControllerTest {
+
+    @Autowired
+    private WebApplicationContext context;
+
+    @Autowired
+    private BatchTokenStore tokenStore;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private MockMvc mockMvc;
+
+    @Before
+    public void setUp() {
+        this.mockMvc = MockMvcBuilders.webAppContextSetup(this.context).apply(springSecurity()).build();
+    }
+
+    @Test
+    public void getTokenUsersWhenExpiredOrRevokedThenAbsent() throws Exception {
+        DefaultOAuth2AccessToken live = storeAccessToken("live", 3600_000L);
+        DefaultOAuth2AccessToken expired = storeAccessToken("expired", -1_000L);
+        DefaultOAuth2AccessToken revoked = storeAccessToken("revoked", 3600_000L);
+        tokenStore.removeAccessToken(revoked);
+
+        mockMvc.perform(post("/api/account/token-users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(toJson(Arrays.asList(live.getValue(), expired.getValue(), revoked.getValue()))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$['" + live.getValue() + "'].userName").value("live"))
+                .andExpect(jsonPath("$['" + live.getValue() + "'].userId").value("live-id"));
+    }
+
+    @Test
+    public void getTokenUsersWhenMoreThanMaxTokensThenBadRequest() throws Exception {
+        List<String> tokens = IntStream.rangeClosed(0, TokenIntrospectionDTO.MAX_TOKENS)
+                .mapToObj(i -> UUID.randomUUID().toString())
+                .collect(Collectors.toList());
+
+        mockMvc.perform(post("/api/account/token-users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(toJson(tokens)))
+                .andExpect(status().isBadRequest());
+    }
+
+    private DefaultOAuth2AccessToken storeAccessToken(String userName, long validityMillis) {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+        token.setExpiration(new Date(System.currentTimeMillis() + validityMillis));
+        token.setScope(Collections.singleton("read"));
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList(Authority.USER);
+        OAuth2Request request = new OAuth2Request(Collections.singletonMap("grant_type", "password"),
+                MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID, authorities, true, Collections.singleton("read"),
+                null, null, null, null);
+        SecurityUser principal = new SecurityUser(userName + "-id", userName, "", authorities);
+        tokenStore.storeAccessToken(token, new OAuth2Authentication(request,
+                new UsernamePasswordAuthenticationToken(principal, null, authorities)));
+        return token;
+    }
+
+    private String toJson(List<String> tokens) throws Exception {
+        TokenIntrospectionDTO dto = new TokenIntrospectionDTO();
+        dto.setTokens(tokens);
+        return objectMapper.writeValueAsString(dto);
+    }
+}
@@ -0,0 +1,117 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.AccessTokenLastAccessBuffer;
+import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that the last access times are coalesced in memory and flushed in bulk writes of at most batch size.
+ */
+public class AccessTokenLastAccessBufferTest {
+
+    private final MongoTemplate  mongoTemplate  = mock(MongoTemplate.class);
+    private final BulkOperations bulkOperations = mock(BulkOperations.class);
+    private final MeterRegistry  meterRegistry  = new SimpleMeterRegistry();
+
+    private AccessTokenLastAccessBuffer buffer;
+
+    @Before
+    public void setup() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MongoOAuth2AccessToken.class)).thenReturn(bulkOperations);
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getOauth2().getLastAccess().setBatchSize(2);
+        applicationProperties.getOauth2().getLastAccess().setMaximumSize(3);
+        buffer = new AccessTokenLastAccessBuffer(mongoTemplate, applicationProperties, meterRegistry);
+    }
+
+    @Test
+    public void touchWhenSameTokenThenCoalesced() {
+        buffer.touch("token");
+        buffer.touch("token");
+        buffer.touch("token");
+        assertThat(bufferSize()).isEqualTo(1);
+        verifyNoInteractions(mongoTemplate);
+
+        buffer.flush();
+
+        verify(bulkOperations, times(1)).updateOne(any(Query.class), any(Update.class));
+        verify(bulkOperations, times(1)).execute();
+        assertThat(bufferSize()).isZero();
+    }
+
+    @Test
+    public void touchWhenBufferFullThenDropped() {
+        buffer.touch("token1");
+        buffer.touch("token2");
+        buffer.touch("token3");
+        buffer.touch("token4");
+        // A buffered token is still updated
+        buffer.touch("token1");
+
+        assertThat(bufferSize()).isEqualTo(3);
+        assertThat(meterRegistry.get(AccessTokenLastAccessBuffer.METRIC_PREFIX + ".dropped").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void flushWhenMoreThanBatchSizeThenSeveralBulkWrites() {
+        buffer.touch("token1");
+        buffer.touch("token2");
+        buffer.touch("token3");
+
+        buffer.flush();
+
+        verify(bulkOperations, times(3)).updateOne(any(Query.class), any(Update.class));
+        verify(bulkOperations, times(2)).execute();
+        // Nothing is written again until the tokens are accessed again
+        buffer.flush();
+        verify(mongoTemplate, times(2)).bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(MongoOAuth2AccessToken.class));
+        assertThat(meterRegistry.get(AccessTokenLastAccessBuffer.METRIC_PREFIX + ".flush").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void flushWhenScheduledThenEveryFlushInterval() throws NoSuchMethodException {
+        Scheduled scheduled = AccessTokenLastAccessBuffer.class.getMethod("flush").getAnnotation(Scheduled.class);
+        long flushIntervalMillis = new ApplicationProperties().getOauth2().getLastAccess().getFlushIntervalMillis();
+
+        assertThat(scheduled.fixedDelayString())
+                .isEqualTo("${application.oauth2.last-access.flush-interval-millis:" + flushIntervalMillis + "}");
+    }
+
+    @Test
+    public void flushWhenWriteFailedThenNotThrown() {
+        when(bulkOperations.execute()).thenThrow(new IllegalStateException("Database is down"));
+        buffer.touch("token");
+
+        buffer.flush();
+
+        assertThat(bufferSize()).isZero();
+    }
+
+    @Test
+    public void destroyWhenPendingThenFlushed() {
+        buffer.touch("token");
+
+        buffer.destroy();
+
+        verify(bulkOperations).execute();
+        assertThat(bufferSize()).isZero();
+    }
+
+    private double bufferSize() {
+        return meterRegistry.get(AccessTokenLastAccessBuffer.METRIC_PREFIX + ".buffer.size").gauge().value();
+    }
+}
@@ -0,0 +1,73 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.AccessTokenNearCache;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that the requests reading the same cached access token do not share its mutable state.
+ */
+public class AccessTokenNearCacheTest {
+
+    private final AccessTokenNearCache accessTokenNearCache = new AccessTokenNearCache(new ApplicationProperties(),
+            new SimpleMeterRegistry());
+
+    @Test
+    public void getWhenCachedThenEachReadGetsItsOwnCopy() {
+        MongoOAuth2AccessToken token = createAccessToken();
+        accessTokenNearCache.put(token);
+        token.getAuthentication().setDetails("modified after put");
+
+        MongoOAuth2AccessToken first = accessTokenNearCache.get(token.getId(), tokenValue -> Optional.empty()).orElse(null);
+        MongoOAuth2AccessToken second = accessTokenNearCache.get(token.getId(), tokenValue -> Optional.empty()).orElse(null);
+        assertThat(first).isNotNull().isNotSameAs(second);
+        assertThat(first.getAuthentication()).isNotSameAs(second.getAuthentication());
+        assertThat(first.getOAuth2AccessToken()).isNotSameAs(second.getOAuth2AccessToken()).isEqualTo(token.getOAuth2AccessToken());
+        assertThat(first.getAuthentication().getDetails()).isNull();
+
+        first.getAuthentication().setDetails("request 1");
+        second.getAuthentication().setDetails("request 2");
+        assertThat(first.getAuthentication().getDetails()).isEqualTo("request 1");
+        assertThat(accessTokenNearCache.get(token.getId(), tokenValue -> Optional.empty())
+                .map(MongoOAuth2AccessToken::getAuthentication).map(OAuth2Authentication::getDetails)).isEmpty();
+    }
+
+    @Test
+    public void getWhenRevokedDuringLoadThenNotCached() {
+        MongoOAuth2AccessToken token = createAccessToken();
+        // The token is revoked on another node while it is being loaded
+        accessTokenNearCache.get(token.getId(), tokenValue -> {
+            accessTokenNearCache.evict(tokenValue);
+            return Optional.of(token);
+        });
+
+        assertThat(accessTokenNearCache.get(token.getId(), tokenValue -> Optional.empty())).isEmpty();
+    }
+
+    private MongoOAuth2AccessToken createAccessToken() {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+        token.setExpiration(new Date(System.currentTimeMillis() + 3600_000L));
+        token.setScope(Collections.singleton("read"));
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList(Authority.USER);
+        OAuth2Request request = new OAuth2Request(Collections.singletonMap("grant_type", "password"),
+                MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID, authorities, true, Collections.singleton("read"),
+                null, null, null, null);
+        OAuth2Authentication authentication = new OAuth2Authentication(request,
+                new UsernamePasswordAuthenticationToken("user", null, authorities));
+        return new MongoOAuth2AccessToken(token, authentication, "authentication-id");
+    }
+}
@@ -0,0 +1,95 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.ApprovalCache;
+import org.infinity.passport.config.oauth2.TokenRevocationBroadcaster;
+import org.infinity.passport.event.ApprovalChangedEvent;
+import org.junit.Test;
+import org.springframework.security.oauth2.provider.approval.Approval;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Verifies that the cached approvals are reloaded after they are changed on any node or one of them expires.
+ */
+public class ApprovalCacheTest {
+
+    private static final String USER_ID   = "user";
+    private static final String CLIENT_ID = "client";
+
+    private final TokenRevocationBroadcaster tokenRevocationBroadcaster = mock(TokenRevocationBroadcaster.class);
+    private final ApprovalCache              approvalCache              = new ApprovalCache(tokenRevocationBroadcaster,
+            new ApplicationProperties(), new SimpleMeterRegistry());
+    private final AtomicInteger              loads                      = new AtomicInteger();
+
+    @Test
+    public void getWhenCachedThenNotLoaded() {
+        approvalCache.get(USER_ID, CLIENT_ID, loader(3600_000L));
+        Collection<Approval> approvals = approvalCache.get(USER_ID, CLIENT_ID, loader(3600_000L));
+
+        assertThat(approvals).hasSize(1);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    public void evictWhenChangedThenReloadedAndBroadcast() {
+        approvalCache.get(USER_ID, CLIENT_ID, loader(3600_000L));
+
+        approvalCache.evict(USER_ID, CLIENT_ID);
+        approvalCache.get(USER_ID, CLIENT_ID, loader(3600_000L));
+
+        assertThat(loads).hasValue(2);
+        verify(tokenRevocationBroadcaster).changeApprovals(USER_ID, CLIENT_ID);
+    }
+
+    @Test
+    public void approvalChangedEventWhenChangedByOtherNodeThenReloaded() {
+        approvalCache.get(USER_ID, CLIENT_ID, loader(3600_000L));
+
+        approvalCache.approvalChangedEvent(new ApprovalChangedEvent(this, USER_ID, CLIENT_ID));
+        approvalCache.get(USER_ID, CLIENT_ID, loader(3600_000L));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    public void getWhenApprovalExpiredThenReloaded() throws InterruptedException {
+        approvalCache.get(USER_ID, CLIENT_ID, loader(50L));
+        Thread.sleep(100L);
+
+        approvalCache.get(USER_ID, CLIENT_ID, loader(3600_000L));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    public void getWhenChangedDuringLoadThenNotCached() {
+        approvalCache.get(USER_ID, CLIENT_ID, () -> {
+            // The approvals are changed after they have been read but before they are cached
+            Collection<Approval> approvals = loader(3600_000L).get();
+            approvalCache.approvalChangedEvent(new ApprovalChangedEvent(this, USER_ID, CLIENT_ID));
+            return approvals;
+        });
+
+        approvalCache.get(USER_ID, CLIENT_ID, loader(3600_000L));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    private Supplier<Collection<Approval>> loader(long validityMillis) {
+        return () -> {
+            loads.incrementAndGet();
+            return Collections.singletonList(new Approval(USER_ID, CLIENT_ID, "read",
+                    new Date(System.currentTimeMillis() + validityMillis), Approval.ApprovalStatus.APPROVED));
+        };
+    }
+}
@@ -0,0 +1,106 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.BoundedPasswordEncoder;
+import org.infinity.passport.exception.PasswordHashingRejectedException;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that the password hashing is rejected fast when the bounded executor is saturated.
+ */
+public class BoundedPasswordEncoderTest {
+
+    private final MeterRegistry          meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch         release       = new CountDownLatch(1);
+    private final ExecutorService        callers       = Executors.newCachedThreadPool();
+    private final BoundedPasswordEncoder passwordEncoder;
+
+    public BoundedPasswordEncoderTest() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getPasswordHash().getExecutor().setPoolSize(1);
+        applicationProperties.getPasswordHash().getExecutor().setQueueCapacity(1);
+        applicationProperties.getPasswordHash().getExecutor().setWaitTimeoutMillis(10_000L);
+        passwordEncoder = new BoundedPasswordEncoder(new BlockingPasswordEncoder(), applicationProperties, 16, meterRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        callers.shutdown();
+        passwordEncoder.shutdown();
+    }
+
+    @Test
+    public void matchesWhenSaturatedThenRejected() throws Exception {
+        // One hash running and one queued
+        Future<Boolean> running = callers.submit(() -> passwordEncoder.matches("password", "password"));
+        Future<Boolean> queued = callers.submit(() -> passwordEncoder.matches("password", "password"));
+        while (queueSize() < 1) {
+            Thread.sleep(10);
+        }
+
+        assertThatThrownBy(() -> passwordEncoder.matches("password", "password"))
+                .isInstanceOf(PasswordHashingRejectedException.class);
+        assertThat(meterRegistry.get(BoundedPasswordEncoder.EXECUTOR_NAME + ".rejected").tag("reason", "saturated")
+                .counter().count()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(running.get()).isTrue();
+        assertThat(queued.get()).isTrue();
+        assertThat(passwordEncoder.encode("password")).isEqualTo("password");
+    }
+
+    @Test
+    public void queueCapacityWhenNotConfiguredThenBoundedByServerWorkerThreads() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getPasswordHash().getExecutor().setPoolSize(4);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(new BlockingPasswordEncoder(), applicationProperties, 16, registry);
+        try {
+            // Half of the 16 workers minus the 4 running hashes
+            assertThat(registry.get("executor.queue.remaining").tag("name", BoundedPasswordEncoder.EXECUTOR_NAME)
+                    .gauge().value()).isEqualTo(4);
+        } finally {
+            encoder.shutdown();
+        }
+    }
+
+    private double queueSize() {
+        return meterRegistry.get("executor.queued").tag("name", BoundedPasswordEncoder.EXECUTOR_NAME).gauge().value();
+    }
+
+    /**
+     * Stands for a slow hashing which completes once released
+     */
+    private class BlockingPasswordEncoder implements PasswordEncoder {
+
+        @Override
+        public String encode(CharSequence rawPassword) {
+            await();
+            return rawPassword.toString();
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            await();
+            return rawPassword.toString().equals(encodedPassword);
+        }
+
+        private void await() {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.ClientDetailsCache;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies that the cached client details are evicted when they are changed or deleted on any node.
+ */
+public class ClientDetailsCacheTest {
+
+    private static final String CLIENT_ID = "client";
+
+    private final MongoTemplate      mongoTemplate      = mock(MongoTemplate.class);
+    private final ClientDetailsCache clientDetailsCache = new ClientDetailsCache(mongoTemplate,
+            new ApplicationProperties(), new SimpleMeterRegistry());
+    private final AtomicInteger      loads              = new AtomicInteger();
+
+    @Test
+    public void checkVersionsWhenChangedByOtherNodeThenEvicted() {
+        clientDetailsCache.get(CLIENT_ID, loader("v1"));
+        clientDetailsCache.get(CLIENT_ID, loader("v1"));
+        assertThat(loads).hasValue(1);
+
+        // Unchanged
+        storedVersion("v1");
+        clientDetailsCache.checkVersions();
+        clientDetailsCache.get(CLIENT_ID, loader("v1"));
+        assertThat(loads).hasValue(1);
+
+        storedVersion("v2");
+        clientDetailsCache.checkVersions();
+        assertThat(clientDetailsCache.get(CLIENT_ID, loader("v2")).map(MongoOAuth2ClientDetails::getVersion)).hasValue("v2");
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    public void checkVersionsWhenDeletedByOtherNodeThenEvicted() {
+        clientDetailsCache.get(CLIENT_ID, loader("v1"));
+        when(mongoTemplate.find(any(Query.class), eq(MongoOAuth2ClientDetails.class))).thenReturn(Collections.emptyList());
+
+        clientDetailsCache.checkVersions();
+
+        assertThat(clientDetailsCache.get(CLIENT_ID, clientId -> Optional.empty())).isEmpty();
+    }
+
+    @Test
+    public void onAfterDeleteWhenDeletedOnThisNodeThenEvicted() {
+        clientDetailsCache.get(CLIENT_ID, loader("v1"));
+
+        clientDetailsCache.onAfterDelete(new AfterDeleteEvent<>(new Document("_id", CLIENT_ID),
+                MongoOAuth2ClientDetails.class, "MongoOAuth2ClientDetails"));
+
+        clientDetailsCache.get(CLIENT_ID, loader("v1"));
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    public void onBeforeConvertWhenSavedThenNewVersion() {
+        MongoOAuth2ClientDetails clientDetails = createClientDetails("v1");
+
+        clientDetailsCache.onBeforeConvert(new BeforeConvertEvent<>(clientDetails, "MongoOAuth2ClientDetails"));
+
+        assertThat(clientDetails.getVersion()).isNotEqualTo("v1");
+    }
+
+    @Test
+    public void getWhenEvictedDuringLoadThenNotCached() {
+        clientDetailsCache.get(CLIENT_ID, clientId -> {
+            // The client details are changed after they have been read but before they are cached
+            Optional<MongoOAuth2ClientDetails> clientDetails = loader("v1").apply(clientId);
+            clientDetailsCache.evict(clientId);
+            return clientDetails;
+        });
+
+        clientDetailsCache.get(CLIENT_ID, loader("v2"));
+        assertThat(loads).hasValue(2);
+    }
+
+    private void storedVersion(String version) {
+        when(mongoTemplate.find(any(Query.class), eq(MongoOAuth2ClientDetails.class)))
+                .thenReturn(Collections.singletonList(createClientDetails(version)));
+    }
+
+    private Function<String, Optional<MongoOAuth2ClientDetails>> loader(String version) {
+        return clientId -> {
+            loads.incrementAndGet();
+            return Optional.of(createClientDetails(version));
+        };
+    }
+
+    private MongoOAuth2ClientDetails createClientDetails(String version) {
+        MongoOAuth2ClientDetails clientDetails = new MongoOAuth2ClientDetails();
+        clientDetails.setClientId(CLIENT_ID);
+        clientDetails.setVersion(version);
+        return clientDetails;
+    }
+}
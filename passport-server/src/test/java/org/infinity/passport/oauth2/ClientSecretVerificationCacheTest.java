@@ -0,0 +1,61 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.ClientSecretVerificationCache;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the client secret verification throughput of the cache with BCrypt alone.
+ */
+@Slf4j
+public class ClientSecretVerificationCacheTest {
+
+    private static final String RAW_SECRET = MongoOAuth2ClientDetails.INTERNAL_RAW_CLIENT_SECRET;
+
+    private final PasswordEncoder               passwordEncoder = new BCryptPasswordEncoder();
+    private final ClientSecretVerificationCache cache           = new ClientSecretVerificationCache(passwordEncoder,
+            new ApplicationProperties(), new SimpleMeterRegistry());
+
+    @Test
+    public void matchesWhenWrongSecretThenFalse() {
+        String encodedSecret = passwordEncoder.encode(RAW_SECRET);
+        assertThat(cache.matches(RAW_SECRET, encodedSecret)).isTrue();
+        assertThat(cache.matches("wrong-secret", encodedSecret)).isFalse();
+        assertThat(cache.matches(RAW_SECRET, passwordEncoder.encode("another-secret"))).isFalse();
+    }
+
+    @Test
+    public void matchesWhenEvictedThenVerifiedAgain() {
+        String encodedSecret = passwordEncoder.encode(RAW_SECRET);
+        assertThat(cache.matches(RAW_SECRET, encodedSecret)).isTrue();
+        cache.evict(encodedSecret);
+        assertThat(cache.matches(RAW_SECRET, encodedSecret)).isTrue();
+    }
+
+    @Test
+    public void benchmarkThroughput() {
+        String encodedSecret = passwordEncoder.encode(RAW_SECRET);
+        double bcryptOpsPerSecond = opsPerSecond(20, () -> passwordEncoder.matches(RAW_SECRET, encodedSecret));
+        double cachedOpsPerSecond = opsPerSecond(100_000, () -> cache.matches(RAW_SECRET, encodedSecret));
+        log.info("BCrypt verification: {} ops/s, cached verification: {} ops/s",
+                String.format("%.0f", bcryptOpsPerSecond), String.format("%.0f", cachedOpsPerSecond));
+        assertThat(cachedOpsPerSecond).isGreaterThan(bcryptOpsPerSecond);
+    }
+
+    private double opsPerSecond(int iterations, Runnable runnable) {
+        // Warm up
+        runnable.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            runnable.run();
+        }
+        return iterations * 1_000_000_000D / (System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,53 @@
+package org.infinity.passport.oauth2;
+
+import lombok.extern.slf4j.Slf4j;
+import org.infinity.passport.config.oauth2.CostAwareBCryptPasswordEncoder;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies the versioned password hashes and calibrates the BCrypt cost on the current hardware.
+ */
+@Slf4j
+public class CostAwareBCryptPasswordEncoderTest {
+
+    private static final String RAW_PASSWORD  = "user";
+    private static final long   TARGET_MILLIS = 100L;
+
+    private final PasswordEncoder passwordEncoder = CostAwareBCryptPasswordEncoder.createDelegatingPasswordEncoder(5);
+
+    @Test
+    public void encodeWhenEncodedThenAlgorithmAndCostRecorded() {
+        String encodedPassword = passwordEncoder.encode(RAW_PASSWORD);
+        assertThat(encodedPassword).startsWith("{" + CostAwareBCryptPasswordEncoder.ID + "}$2a$05$");
+        assertThat(passwordEncoder.matches(RAW_PASSWORD, encodedPassword)).isTrue();
+        assertThat(passwordEncoder.upgradeEncoding(encodedPassword)).isFalse();
+    }
+
+    @Test
+    public void upgradeEncodingWhenLegacyHashThenTrue() {
+        String legacyPassword = new BCryptPasswordEncoder(5).encode(RAW_PASSWORD);
+        assertThat(passwordEncoder.matches(RAW_PASSWORD, legacyPassword)).isTrue();
+        assertThat(passwordEncoder.upgradeEncoding(legacyPassword)).isTrue();
+    }
+
+    @Test
+    public void upgradeEncodingWhenCostChangedThenTrue() {
+        String lowerCostPassword = CostAwareBCryptPasswordEncoder.createDelegatingPasswordEncoder(4).encode(RAW_PASSWORD);
+        String higherCostPassword = CostAwareBCryptPasswordEncoder.createDelegatingPasswordEncoder(6).encode(RAW_PASSWORD);
+        assertThat(passwordEncoder.matches(RAW_PASSWORD, lowerCostPassword)).isTrue();
+        assertThat(passwordEncoder.matches(RAW_PASSWORD, higherCostPassword)).isTrue();
+        assertThat(passwordEncoder.upgradeEncoding(lowerCostPassword)).isTrue();
+        assertThat(passwordEncoder.upgradeEncoding(higherCostPassword)).isTrue();
+    }
+
+    @Test
+    public void benchmarkCalibrateStrength() {
+        int strength = CostAwareBCryptPasswordEncoder.calibrateStrength(TARGET_MILLIS);
+        log.info("Calibrated BCrypt strength for {} ms per hash: {}", TARGET_MILLIS, strength);
+        assertThat(strength).isBetween(CostAwareBCryptPasswordEncoder.MIN_STRENGTH, CostAwareBCryptPasswordEncoder.MAX_STRENGTH);
+    }
+}
@@ -0,0 +1,89 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.ExpiredTokenSweeper;
+import org.infinity.passport.domain.MongoOAuth2Approval;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.infinity.passport.domain.TaskLock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.security.oauth2.provider.approval.Approval;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that a single node sweeps the expired documents at a time.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class ExpiredTokenSweeperTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    private ExpiredTokenSweeper node1;
+
+    private ExpiredTokenSweeper node2;
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(ExpiredTokenSweeper.LOCK_NAME)), TaskLock.class);
+        node1 = new ExpiredTokenSweeper(mongoTemplate, meterRegistry, applicationProperties);
+        node2 = new ExpiredTokenSweeper(mongoTemplate, meterRegistry, applicationProperties);
+    }
+
+    @Test
+    public void tryLockWhenHeldByOtherNodeThenFalse() {
+        assertThat(node1.tryLock()).isTrue();
+        assertThat(node2.tryLock()).isFalse();
+        // The holder extends its lock
+        assertThat(node1.tryLock()).isTrue();
+    }
+
+    @Test
+    public void tryLockWhenExpiredThenTakenOver() {
+        assertThat(node1.tryLock()).isTrue();
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(ExpiredTokenSweeper.LOCK_NAME)),
+                Update.update("lockedUntil", Instant.now().minusSeconds(1)), TaskLock.class);
+
+        assertThat(node2.tryLock()).isTrue();
+        assertThat(node1.tryLock()).isFalse();
+    }
+
+    @Test
+    public void sweepWhenLockedByOtherNodeThenSkipped() {
+        MongoOAuth2Approval approval = new MongoOAuth2Approval();
+        approval.setUserId(UUID.randomUUID().toString());
+        approval.setClientId(MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID);
+        approval.setScope("read");
+        approval.setStatus(Approval.ApprovalStatus.APPROVED);
+        approval.setExpiresAt(new Date(System.currentTimeMillis() - 1_000L));
+        mongoTemplate.insert(approval);
+        assertThat(node1.tryLock()).isTrue();
+
+        node2.sweep();
+        assertThat(mongoTemplate.findById(approval.getId(), MongoOAuth2Approval.class)).isNotNull();
+
+        node1.sweep();
+        assertThat(mongoTemplate.findById(approval.getId(), MongoOAuth2Approval.class)).isNull();
+    }
+}
@@ -0,0 +1,88 @@
+package org.infinity.passport.oauth2;
+
+import lombok.extern.slf4j.Slf4j;
+import org.infinity.passport.config.oauth2.GrantedAuthorityRegistry;
+import org.infinity.passport.config.oauth2.OAuth2AuthenticationCodec;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the allocation of decoding an authentication with the interned authority sets and with fresh authorities.
+ */
+@Slf4j
+public class GrantedAuthorityRegistryTest {
+
+    private static final int          ITERATIONS      = 100_000;
+    private static final List<String> AUTHORITY_NAMES = Arrays.asList(Authority.USER, Authority.ADMIN, Authority.DEVELOPER);
+
+    @Test
+    public void setOfWhenRegisteredThenSameInstance() {
+        Set<GrantedAuthority> authorities = GrantedAuthorityRegistry.setOf(AUTHORITY_NAMES);
+
+        assertThat(GrantedAuthorityRegistry.setOf(new ArrayList<>(AUTHORITY_NAMES))).isSameAs(authorities);
+        assertThat(authorities).containsExactlyInAnyOrder(new SimpleGrantedAuthority(Authority.USER),
+                new SimpleGrantedAuthority(Authority.ADMIN), new SimpleGrantedAuthority(Authority.DEVELOPER));
+        assertThat(GrantedAuthorityRegistry.valueOf(Authority.USER)).isSameAs(GrantedAuthorityRegistry.valueOf(Authority.USER));
+    }
+
+    @Test
+    public void setOfWhenUnregisteredThenNotPooled() {
+        String name = "ROLE_UNREGISTERED";
+        assertThat(GrantedAuthorityRegistry.setOf(Collections.singleton(name)))
+                .containsExactly(new SimpleGrantedAuthority(name));
+        assertThat(GrantedAuthorityRegistry.valueOf(name)).isNotSameAs(GrantedAuthorityRegistry.valueOf(name));
+    }
+
+    @Test
+    public void benchmarkAllocation() {
+        // Decode the same authentication with registered names and with unregistered names of the same length,
+        // which get fresh authorities on every read like before the registry
+        byte[] registered = OAuth2AuthenticationCodec.encode(createAuthentication(AUTHORITY_NAMES));
+        byte[] unregistered = OAuth2AuthenticationCodec.encode(createAuthentication(AUTHORITY_NAMES.stream()
+                .map(name -> name.toLowerCase(Locale.ENGLISH)).collect(Collectors.toList())));
+        long freshBytes = allocatedBytes(() -> OAuth2AuthenticationCodec.decode(unregistered));
+        long internedBytes = allocatedBytes(() -> OAuth2AuthenticationCodec.decode(registered));
+        log.info("Fresh authorities: {} bytes/op, interned authorities: {} bytes/op",
+                freshBytes / ITERATIONS, internedBytes / ITERATIONS);
+        assertThat(internedBytes).isLessThan(freshBytes);
+    }
+
+    private OAuth2Authentication createAuthentication(List<String> authorityNames) {
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList(authorityNames.toArray(new String[0]));
+        OAuth2Request request = new OAuth2Request(Collections.singletonMap("grant_type", "password"),
+                MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID, authorities, true, Collections.singleton("read"),
+                null, null, null, null);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken("user", null, authorities));
+    }
+
+    private long allocatedBytes(Supplier<OAuth2Authentication> supplier) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        OAuth2Authentication result = null;
+        // Warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            result = supplier.get();
+        }
+        long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            result = supplier.get();
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+        assertThat(result.getAuthorities()).hasSize(AUTHORITY_NAMES.size());
+        return allocated;
+    }
+}
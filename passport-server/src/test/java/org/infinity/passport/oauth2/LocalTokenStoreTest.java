@@ -0,0 +1,142 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.infinity.passport.config.oauth2.LocalTokenStore;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.io.File;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies the compact in-process token store.
+ */
+public class LocalTokenStoreTest {
+
+    private static final String CLIENT_ID = MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID;
+
+    private final LocalTokenStore tokenStore = new LocalTokenStore(new SimpleMeterRegistry());
+
+    @Test
+    public void storeAccessTokenWhenReadThenSame() {
+        OAuth2Authentication authentication = createAuthentication("user");
+        DefaultOAuth2AccessToken token = createAccessToken(3600_000L);
+        token.setAdditionalInformation(Collections.singletonMap("jti", "id"));
+        tokenStore.storeAccessToken(token, authentication);
+        tokenStore.storeRefreshToken(token.getRefreshToken(), authentication);
+
+        OAuth2AccessToken read = tokenStore.readAccessToken(token.getValue());
+        assertThat(read).isEqualTo(token);
+        assertThat(read.getExpiration()).isEqualTo(token.getExpiration());
+        assertThat(read.getScope()).isEqualTo(token.getScope());
+        assertThat(read.getRefreshToken().getValue()).isEqualTo(token.getRefreshToken().getValue());
+        assertThat(read.getAdditionalInformation()).isEqualTo(token.getAdditionalInformation());
+        assertThat(tokenStore.readAuthentication(token.getValue()).getOAuth2Request()).isEqualTo(authentication.getOAuth2Request());
+        assertThat(tokenStore.readAuthentication(token.getValue()).getName()).isEqualTo(authentication.getName());
+        assertThat(tokenStore.getAccessToken(authentication)).isEqualTo(token);
+        assertThat(tokenStore.findTokensByClientId(CLIENT_ID)).containsExactly(token);
+        assertThat(tokenStore.findTokensByClientIdAndUserName(CLIENT_ID, "user")).containsExactly(token);
+        assertThat(tokenStore.findTokensByClientIdAndUserName(CLIENT_ID, "another")).isEmpty();
+        assertThat(tokenStore.readAuthenticationForRefreshToken(token.getRefreshToken()).getName()).isEqualTo(authentication.getName());
+    }
+
+    @Test
+    public void removeAccessTokenUsingRefreshTokenWhenStoredThenRemoved() {
+        OAuth2Authentication authentication = createAuthentication("user");
+        DefaultOAuth2AccessToken token = createAccessToken(3600_000L);
+        tokenStore.storeAccessToken(token, authentication);
+
+        tokenStore.removeAccessTokenUsingRefreshToken(token.getRefreshToken());
+
+        assertThat(tokenStore.readAccessToken(token.getValue())).isNull();
+        assertThat(tokenStore.getAccessToken(authentication)).isNull();
+        assertThat(tokenStore.findTokensByClientId(CLIENT_ID)).isEmpty();
+    }
+
+    @Test
+    public void purgeExpiredWhenExpiredThenRemoved() {
+        DefaultOAuth2AccessToken expired = createAccessToken(-1_000L);
+        DefaultOAuth2AccessToken live = createAccessToken(3600_000L);
+        tokenStore.storeAccessToken(expired, createAuthentication("expired"));
+        tokenStore.storeAccessToken(live, createAuthentication("live"));
+
+        tokenStore.purgeExpired();
+
+        assertThat(tokenStore.readAccessToken(expired.getValue())).isNull();
+        assertThat(tokenStore.readAccessToken(live.getValue())).isNotNull();
+    }
+
+    @Test
+    public void readAuthenticationsWhenExpiredBeforePurgeThenAbsent() {
+        DefaultOAuth2AccessToken expired = createAccessToken(-1_000L);
+        DefaultOAuth2AccessToken live = createAccessToken(3600_000L);
+        tokenStore.storeAccessToken(expired, createAuthentication("expired"));
+        tokenStore.storeAccessToken(live, createAuthentication("live"));
+
+        assertThat(tokenStore.readAuthentication(expired.getValue())).isNull();
+        assertThat(tokenStore.readAuthentications(Arrays.asList(expired.getValue(), live.getValue(), "unknown")))
+                .containsOnlyKeys(live.getValue());
+    }
+
+    @Test
+    public void storeAccessTokenWhenAdditionalInformationThenPlainMap() {
+        DefaultOAuth2AccessToken token = createAccessToken(3600_000L);
+        Map<String, Object> additionalInformation = new LinkedHashMap<>();
+        additionalInformation.put("jti", "id");
+        additionalInformation.put("count", 1);
+        additionalInformation.put("issuedAt", 1L);
+        additionalInformation.put("active", true);
+        additionalInformation.put("roles", Arrays.asList("user", null));
+        additionalInformation.put("details", Collections.singletonMap("score", 0.5D));
+        token.setAdditionalInformation(additionalInformation);
+        tokenStore.storeAccessToken(token, createAuthentication("user"));
+
+        assertThat(tokenStore.readAccessToken(token.getValue()).getAdditionalInformation()).isEqualTo(additionalInformation);
+
+        token.setAdditionalInformation(Collections.singletonMap("file", new File("/")));
+        assertThatThrownBy(() -> tokenStore.storeAccessToken(token, createAuthentication("user")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void storeAccessTokenWhenMaximumSizeReachedThenEvictedWithIndexes() {
+        LocalTokenStore boundedTokenStore = new LocalTokenStore(1L, 600L, new SimpleMeterRegistry());
+        OAuth2Authentication authentication = createAuthentication("evicted");
+        DefaultOAuth2AccessToken evicted = createAccessToken(3600_000L);
+        DefaultOAuth2AccessToken live = createAccessToken(3600_000L);
+        boundedTokenStore.storeAccessToken(evicted, authentication);
+        boundedTokenStore.storeAccessToken(live, createAuthentication("live"));
+
+        assertThat(boundedTokenStore.readAccessToken(evicted.getValue())).isNull();
+        assertThat(boundedTokenStore.getAccessToken(authentication)).isNull();
+        assertThat(boundedTokenStore.findTokensByClientId(CLIENT_ID)).containsExactly(live);
+    }
+
+    private DefaultOAuth2AccessToken createAccessToken(long validityMillis) {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+        token.setExpiration(new Date(System.currentTimeMillis() + validityMillis));
+        token.setScope(new HashSet<>(Arrays.asList("read", "write")));
+        token.setRefreshToken(new DefaultExpiringOAuth2RefreshToken(UUID.randomUUID().toString(),
+                new Date(System.currentTimeMillis() + 7 * validityMillis)));
+        return token;
+    }
+
+    private OAuth2Authentication createAuthentication(String userName) {
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList(Authority.USER);
+        OAuth2Request request = new OAuth2Request(Collections.singletonMap("grant_type", "password"), CLIENT_ID,
+                authorities, true, Collections.singleton("read"), null, null, null, null);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(userName, null, authorities));
+    }
+}
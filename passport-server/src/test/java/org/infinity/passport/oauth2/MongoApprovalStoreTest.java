@@ -0,0 +1,161 @@
+package org.infinity.passport.oauth2;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonString;
+import org.infinity.passport.config.oauth2.MongoApprovalStore;
+import org.infinity.passport.domain.MongoOAuth2Approval;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.security.oauth2.provider.approval.Approval;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counts the commands sent to the approval collection to verify that approvals are added and revoked in one round trip.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class MongoApprovalStoreTest {
+
+    private static final String       CLIENT_ID = MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID;
+    private static final List<String> SCOPES    = Arrays.asList("read", "write", "profile", "email", "phone", "address",
+            "openid", "offline_access");
+
+    @Autowired
+    private MongoApprovalStore approvalStore;
+
+    @Autowired
+    private CollectionCommandCounter commandCounter;
+
+    @Test
+    public void addApprovalsWhenManyScopesThenOneRoundTrip() {
+        String userId = UUID.randomUUID().toString();
+
+        commandCounter.reset();
+        assertThat(approvalStore.addApprovals(createApprovals(userId))).isTrue();
+        assertThat(commandCounter.getCount()).isEqualTo(1);
+
+        // Update the existing approvals
+        commandCounter.reset();
+        assertThat(approvalStore.addApprovals(createApprovals(userId))).isTrue();
+        assertThat(commandCounter.getCount()).isEqualTo(1);
+
+        assertThat(approvalStore.getApprovals(userId, CLIENT_ID)).extracting(Approval::getScope)
+                .containsExactlyInAnyOrderElementsOf(SCOPES);
+    }
+
+    @Test
+    public void revokeApprovalsWhenManyScopesThenOneRoundTrip() {
+        String userId = UUID.randomUUID().toString();
+        approvalStore.addApprovals(createApprovals(userId));
+
+        commandCounter.reset();
+        assertThat(approvalStore.revokeApprovals(createApprovals(userId))).isTrue();
+        assertThat(commandCounter.getCount()).isEqualTo(1);
+        assertThat(approvalStore.getApprovals(userId, CLIENT_ID)).isEmpty();
+
+        // Nothing left to revoke
+        assertThat(approvalStore.revokeApprovals(createApprovals(userId))).isFalse();
+    }
+
+    @Test
+    public void revokeApprovalsWhenDuplicateScopesThenRevoked() {
+        String userId = UUID.randomUUID().toString();
+        List<Approval> approvals = new ArrayList<>(createApprovals(userId));
+        approvals.addAll(createApprovals(userId));
+        assertThat(approvalStore.addApprovals(approvals)).isTrue();
+        assertThat(approvalStore.getApprovals(userId, CLIENT_ID)).hasSize(SCOPES.size());
+
+        assertThat(approvalStore.revokeApprovals(approvals)).isTrue();
+        assertThat(approvalStore.getApprovals(userId, CLIENT_ID)).isEmpty();
+    }
+
+    @Test
+    public void revokeApprovalsWhenHandledAsExpiryThenExpired() {
+        String userId = UUID.randomUUID().toString();
+        approvalStore.addApprovals(createApprovals(userId));
+
+        approvalStore.setHandleRevocationsAsExpiry(true);
+        try {
+            commandCounter.reset();
+            assertThat(approvalStore.revokeApprovals(createApprovals(userId))).isTrue();
+            assertThat(commandCounter.getCount()).isEqualTo(1);
+            assertThat(approvalStore.getApprovals(userId, CLIENT_ID)).hasSize(SCOPES.size())
+                    .allMatch(approval -> !approval.getExpiresAt().after(new Date()));
+        } finally {
+            approvalStore.setHandleRevocationsAsExpiry(false);
+        }
+    }
+
+    private Collection<Approval> createApprovals(String userId) {
+        Date expiresAt = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(30));
+        return SCOPES.stream()
+                .map(scope -> new Approval(userId, CLIENT_ID, scope, expiresAt, Approval.ApprovalStatus.APPROVED))
+                .collect(Collectors.toList());
+    }
+
+    @TestConfiguration
+    static class CommandCounterConfiguration {
+        @Bean
+        public CollectionCommandCounter collectionCommandCounter() {
+            // Do not depend on MongoTemplate which depends on the client being customized
+            return new CollectionCommandCounter(MongoOAuth2Approval.class.getAnnotation(Document.class).collection());
+        }
+
+        @Bean
+        public MongoClientSettingsBuilderCustomizer commandCounterCustomizer(CollectionCommandCounter commandCounter) {
+            return builder -> builder.addCommandListener(commandCounter);
+        }
+    }
+
+    /**
+     * Counts the commands sent to one collection
+     */
+    static class CollectionCommandCounter implements CommandListener {
+        private final BsonString    collectionName;
+        private final AtomicInteger count = new AtomicInteger();
+
+        CollectionCommandCounter(String collectionName) {
+            this.collectionName = new BsonString(collectionName);
+        }
+
+        @Override
+        public void commandStarted(CommandStartedEvent event) {
+            if (collectionName.equals(event.getCommand().get(event.getCommandName()))) {
+                count.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void commandSucceeded(CommandSucceededEvent event) {
+        }
+
+        @Override
+        public void commandFailed(CommandFailedEvent event) {
+        }
+
+        void reset() {
+            count.set(0);
+        }
+
+        int getCount() {
+            return count.get();
+        }
+    }
+}
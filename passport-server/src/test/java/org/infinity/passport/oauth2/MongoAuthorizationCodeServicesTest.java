@@ -0,0 +1,97 @@
+package org.infinity.passport.oauth2;
+
+import org.infinity.passport.config.oauth2.MongoAuthorizationCodeServices;
+import org.infinity.passport.config.oauth2.SecurityUser;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2AuthorizationCode;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that an authorization code is redeemed at most once and never after it expires.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class MongoAuthorizationCodeServicesTest {
+
+    @Autowired
+    private MongoAuthorizationCodeServices authorizationCodeServices;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    public void consumeAuthorizationCodeWhenConcurrentThenRedeemedOnce() throws Exception {
+        int attempts = 8;
+        String code = authorizationCodeServices.createAuthorizationCode(createAuthentication());
+        ExecutorService threadPool = Executors.newFixedThreadPool(attempts);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<OAuth2Authentication>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < attempts; i++) {
+                results.add(threadPool.submit(() -> {
+                    start.await();
+                    return authorizationCodeServices.consumeAuthorizationCode(code);
+                }));
+            }
+            start.countDown();
+
+            int redeemed = 0;
+            int rejected = 0;
+            for (Future<OAuth2Authentication> result : results) {
+                try {
+                    assertThat(result.get(10, TimeUnit.SECONDS).getName()).isEqualTo("louis");
+                    redeemed++;
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause()).isInstanceOf(InvalidGrantException.class);
+                    rejected++;
+                }
+            }
+            assertThat(redeemed).isEqualTo(1);
+            assertThat(rejected).isEqualTo(attempts - 1);
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void consumeAuthorizationCodeWhenExpiredThenRejected() {
+        String code = UUID.randomUUID().toString();
+        // The TTL monitor of MongoDB has not removed it yet
+        mongoTemplate.insert(new MongoOAuth2AuthorizationCode(code, createAuthentication(), Instant.now().minusSeconds(1)));
+
+        assertThatThrownBy(() -> authorizationCodeServices.consumeAuthorizationCode(code))
+                .isInstanceOf(InvalidGrantException.class);
+        assertThat(mongoTemplate.findById(code, MongoOAuth2AuthorizationCode.class)).isNull();
+    }
+
+    private OAuth2Authentication createAuthentication() {
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList(Authority.USER);
+        Map<String, String> requestParameters = new HashMap<>();
+        requestParameters.put("grant_type", "authorization_code");
+        requestParameters.put("client_id", MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID);
+        OAuth2Request request = new OAuth2Request(requestParameters, MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID,
+                authorities, true, Collections.singleton("read"), Collections.emptySet(), null,
+                Collections.emptySet(), Collections.emptyMap());
+        SecurityUser principal = new SecurityUser("1", "louis", "", authorities);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(principal, null, authorities));
+    }
+}
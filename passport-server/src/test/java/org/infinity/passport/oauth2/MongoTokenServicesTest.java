@@ -0,0 +1,201 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.infinity.passport.config.oauth2.MongoClientDetailsService;
+import org.infinity.passport.config.oauth2.MongoTokenServices;
+import org.infinity.passport.config.oauth2.MongoTokenStore;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.TokenRequest;
+import org.springframework.security.oauth2.provider.token.AuthorizationServerTokenServices;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the password grant token issuance throughput of the get-or-create upsert with the default token services,
+ * which look up the existing token and store it again, and verifies the token reuse and the refresh token swap.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+@Slf4j
+public class MongoTokenServicesTest {
+
+    private static final String CLIENT_ID  = MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID;
+    private static final int    THREADS    = 8;
+    private static final int    ITERATIONS = 200;
+
+    @Autowired
+    private MongoTokenStore tokenStore;
+
+    @Autowired
+    private MongoClientDetailsService clientDetailsService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private DefaultTokenServices defaultTokenServices;
+
+    private MongoTokenServices mongoTokenServices;
+
+    @Before
+    public void setup() {
+        defaultTokenServices = new DefaultTokenServices();
+        defaultTokenServices.setTokenStore(tokenStore);
+        defaultTokenServices.setSupportRefreshToken(true);
+        defaultTokenServices.setClientDetailsService(clientDetailsService);
+
+        mongoTokenServices = new MongoTokenServices(tokenStore, meterRegistry);
+        mongoTokenServices.setSupportRefreshToken(true);
+        mongoTokenServices.setClientDetailsService(clientDetailsService);
+    }
+
+    @Test
+    public void createAccessTokenWhenReLoginThenSameToken() {
+        OAuth2Authentication authentication = createAuthentication(UUID.randomUUID().toString());
+        OAuth2AccessToken accessToken = mongoTokenServices.createAccessToken(authentication);
+
+        assertThat(accessToken.getRefreshToken()).isNotNull();
+        assertThat(mongoTokenServices.createAccessToken(authentication).getValue()).isEqualTo(accessToken.getValue());
+        assertThat(tokenStore.getAccessToken(authentication).getValue()).isEqualTo(accessToken.getValue());
+        assertThat(tokenStore.readRefreshToken(accessToken.getRefreshToken().getValue())).isNotNull();
+    }
+
+    @Test
+    public void createAccessTokenWhenConcurrentLoginsThenSameToken() throws Exception {
+        OAuth2Authentication authentication = createAuthentication(UUID.randomUUID().toString());
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> mongoTokenServices.createAccessToken(authentication).getValue()));
+            }
+            Set<String> tokenValues = new HashSet<>();
+            for (Future<String> future : futures) {
+                tokenValues.add(future.get());
+            }
+            assertThat(tokenValues).hasSize(1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void refreshAccessTokenWhenReusedThenAccessTokenSwapped() {
+        OAuth2AccessToken accessToken = mongoTokenServices.createAccessToken(createAuthentication(UUID.randomUUID().toString()));
+        String refreshTokenValue = accessToken.getRefreshToken().getValue();
+
+        OAuth2AccessToken refreshedToken = mongoTokenServices.refreshAccessToken(refreshTokenValue, createRefreshTokenRequest());
+
+        assertThat(refreshedToken.getValue()).isNotEqualTo(accessToken.getValue());
+        assertThat(refreshedToken.getRefreshToken().getValue()).isEqualTo(refreshTokenValue);
+        assertThat(tokenStore.readAccessToken(accessToken.getValue())).isNull();
+        assertThat(tokenStore.readAccessToken(refreshedToken.getValue())).isNotNull();
+        assertThat(meterRegistry.find(MongoTokenServices.REFRESH_METRIC_NAME).tag("step", "read").timer())
+                .isNotNull().matches(timer -> timer.count() > 0);
+    }
+
+    @Test
+    public void refreshAccessTokenWhenRotatedThenOldRefreshTokenRejected() {
+        mongoTokenServices.setReuseRefreshToken(false);
+        OAuth2AccessToken accessToken = mongoTokenServices.createAccessToken(createAuthentication(UUID.randomUUID().toString()));
+        String refreshTokenValue = accessToken.getRefreshToken().getValue();
+
+        OAuth2AccessToken refreshedToken = mongoTokenServices.refreshAccessToken(refreshTokenValue, createRefreshTokenRequest());
+
+        assertThat(refreshedToken.getRefreshToken().getValue()).isNotEqualTo(refreshTokenValue);
+        assertThat(tokenStore.readRefreshToken(refreshedToken.getRefreshToken().getValue())).isNotNull();
+        assertThatThrownBy(() -> mongoTokenServices.refreshAccessToken(refreshTokenValue, createRefreshTokenRequest()))
+                .isInstanceOf(InvalidGrantException.class);
+    }
+
+    @Test
+    public void createAccessTokenWhenReLoginManyTimesThenOneTokenStored() {
+        String userName = UUID.randomUUID().toString();
+        OAuth2AccessToken accessToken = mongoTokenServices.createAccessToken(createAuthentication(userName));
+        for (int i = 0; i < 10; i++) {
+            mongoTokenServices.createAccessToken(createAuthentication(userName));
+        }
+
+        assertThat(tokenStore.findTokensByClientIdAndUserName(CLIENT_ID, userName)).containsExactly(accessToken);
+        assertThat(tokenStore.readRefreshToken(accessToken.getRefreshToken().getValue())).isNotNull();
+    }
+
+    @Test
+    public void benchmarkPasswordGrantThroughput() throws Exception {
+        // Opt in with -Dbenchmark=true, because the throughput depends on the machine
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        double defaultOpsPerSecond = opsPerSecond(defaultTokenServices);
+        double upsertOpsPerSecond = opsPerSecond(mongoTokenServices);
+        log.info("Default token services: {} tokens/s, get-or-create upsert: {} tokens/s",
+                String.format("%.0f", defaultOpsPerSecond), String.format("%.0f", upsertOpsPerSecond));
+        assertThat(upsertOpsPerSecond).isGreaterThan(defaultOpsPerSecond);
+    }
+
+    private double opsPerSecond(AuthorizationServerTokenServices tokenServices) throws Exception {
+        // Each thread logs in again and again as its own user, like the users of a busy client
+        List<OAuth2Authentication> authentications = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            authentications.add(createAuthentication(UUID.randomUUID().toString()));
+        }
+        // Warm up and issue the first tokens
+        authentications.forEach(tokenServices::createAccessToken);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (OAuth2Authentication authentication : authentications) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        tokenServices.createAccessToken(authentication);
+                    }
+                    return null;
+                }));
+            }
+            long startTime = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return THREADS * ITERATIONS * 1_000_000_000D / (System.nanoTime() - startTime);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private TokenRequest createRefreshTokenRequest() {
+        return new TokenRequest(Collections.singletonMap("grant_type", "refresh_token"), CLIENT_ID,
+                Collections.emptySet(), "refresh_token");
+    }
+
+    private OAuth2Authentication createAuthentication(String userName) {
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList(Authority.USER);
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("grant_type", "password");
+        parameters.put("username", userName);
+        OAuth2Request request = new OAuth2Request(parameters, CLIENT_ID, authorities, true,
+                Collections.singleton("read"), null, null, null, null);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(userName, null, authorities));
+    }
+}
@@ -0,0 +1,191 @@
+package org.infinity.passport.oauth2;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.infinity.passport.config.oauth2.MongoTokenStore;
+import org.infinity.passport.config.oauth2.SecurityUser;
+import org.infinity.passport.controller.OAuth2AccessTokenController;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.infinity.passport.dto.OAuth2AccessTokenSummaryDTO;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies the number and the shape of the commands sent to the access token collection by the removals, the
+ * streaming of the tokens of a client and the projected token list.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class MongoTokenStoreCommandTest {
+
+    @Autowired
+    private MongoTokenStore tokenStore;
+
+    @Autowired
+    private OAuth2AccessTokenController accessTokenController;
+
+    @Autowired
+    private CollectionCommandRecorder commandRecorder;
+
+    private String clientId;
+
+    @Before
+    public void setup() {
+        clientId = UUID.randomUUID().toString();
+    }
+
+    @Test
+    public void removeAccessTokenWhenStoredThenOneDelete() {
+        OAuth2AccessToken token = storeAccessToken("user");
+
+        commandRecorder.reset();
+        tokenStore.removeAccessToken(token);
+
+        assertThat(commandRecorder.getCommandNames()).containsExactly("delete");
+        assertThat(tokenStore.findAccessToken(token.getValue())).isEmpty();
+    }
+
+    @Test
+    public void removeAccessTokenUsingRefreshTokenWhenStoredThenOneFindAndModify() {
+        OAuth2AccessToken token = storeAccessToken("user");
+
+        commandRecorder.reset();
+        tokenStore.removeAccessTokenUsingRefreshToken(token.getRefreshToken());
+
+        assertThat(commandRecorder.getCommandNames()).containsExactly("findAndModify");
+        // Only the ID is returned, not the whole document with its authentication
+        assertThat(commandRecorder.getCommands().get(0).getDocument("fields").keySet()).containsExactly("_id");
+        assertThat(tokenStore.findAccessToken(token.getValue())).isEmpty();
+    }
+
+    @Test
+    public void streamTokensByClientIdWhenManyTokensThenProjectedCursor() {
+        List<String> tokenValues = Stream.of("user1", "user2", "user3")
+                .map(userName -> storeAccessToken(userName).getValue()).collect(Collectors.toList());
+
+        commandRecorder.reset();
+        try (Stream<OAuth2AccessToken> tokens = tokenStore.streamTokensByClientId(clientId)) {
+            assertThat(tokens.map(OAuth2AccessToken::getValue)).containsExactlyInAnyOrderElementsOf(tokenValues);
+        }
+
+        assertThat(commandRecorder.getCommandNames()).containsExactly("find");
+        assertThat(commandRecorder.getCommands().get(0).getDocument("projection").keySet()).containsExactly("oAuth2AccessToken");
+    }
+
+    @Test
+    @WithMockUser(authorities = Authority.ADMIN)
+    public void findWhenListedThenCountAndProjectedFind() {
+        storeAccessToken("user1");
+        storeAccessToken("user2");
+
+        commandRecorder.reset();
+        List<OAuth2AccessTokenSummaryDTO> tokens = accessTokenController.find(PageRequest.of(0, 10), null, clientId,
+                null, null).getBody();
+
+        assertThat(tokens).hasSize(2).allMatch(token -> "password".equals(token.getGrantType()));
+        assertThat(commandRecorder.getCommandNames()).containsExactly("count", "find");
+        assertThat(commandRecorder.getCommands().get(1).getDocument("projection").keySet())
+                .containsExactlyInAnyOrder(OAuth2AccessTokenSummaryDTO.FIELD_NAMES)
+                .doesNotContain("authentication");
+    }
+
+    private OAuth2AccessToken storeAccessToken(String userName) {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+        token.setExpiration(new Date(System.currentTimeMillis() + 3600_000L));
+        token.setScope(Collections.singleton("read"));
+        token.setRefreshToken(new DefaultExpiringOAuth2RefreshToken(UUID.randomUUID().toString(),
+                new Date(System.currentTimeMillis() + 7200_000L)));
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList(Authority.USER);
+        OAuth2Request request = new OAuth2Request(Collections.singletonMap("grant_type", "password"), clientId,
+                authorities, true, Collections.singleton("read"), Collections.emptySet(), null,
+                Collections.emptySet(), Collections.emptyMap());
+        SecurityUser principal = new SecurityUser(userName + "-id", userName, "", authorities);
+        tokenStore.storeAccessToken(token, new OAuth2Authentication(request,
+                new UsernamePasswordAuthenticationToken(principal, null, authorities)));
+        return token;
+    }
+
+    @TestConfiguration
+    static class CommandRecorderConfiguration {
+        @Bean
+        public CollectionCommandRecorder collectionCommandRecorder() {
+            // Do not depend on MongoTemplate which depends on the client being customized
+            return new CollectionCommandRecorder(MongoOAuth2AccessToken.class.getAnnotation(Document.class).collection());
+        }
+
+        @Bean
+        public MongoClientSettingsBuilderCustomizer commandRecorderCustomizer(CollectionCommandRecorder commandRecorder) {
+            return builder -> builder.addCommandListener(commandRecorder);
+        }
+    }
+
+    /**
+     * Records the commands sent to one collection, including the getMore commands of its cursors
+     */
+    static class CollectionCommandRecorder implements CommandListener {
+        private final BsonString         collectionName;
+        private final List<BsonDocument> commands = new CopyOnWriteArrayList<>();
+
+        CollectionCommandRecorder(String collectionName) {
+            this.collectionName = new BsonString(collectionName);
+        }
+
+        @Override
+        public void commandStarted(CommandStartedEvent event) {
+            if (collectionName.equals(event.getCommand().get(event.getCommandName()))
+                    || collectionName.equals(event.getCommand().get("collection"))) {
+                commands.add(event.getCommand().clone());
+            }
+        }
+
+        @Override
+        public void commandSucceeded(CommandSucceededEvent event) {
+        }
+
+        @Override
+        public void commandFailed(CommandFailedEvent event) {
+        }
+
+        void reset() {
+            commands.clear();
+        }
+
+        List<BsonDocument> getCommands() {
+            return commands;
+        }
+
+        List<String> getCommandNames() {
+            return commands.stream().map(BsonDocument::getFirstKey).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.infinity.passport.oauth2;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Binary;
+import org.infinity.passport.config.oauth2.OAuth2AuthenticationCodec;
+import org.infinity.passport.config.oauth2.OAuth2AuthenticationReadConverter;
+import org.infinity.passport.config.oauth2.SecurityUser;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.io.File;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the compact binary codec with the nested document format on size and decoding time.
+ */
+@Slf4j
+public class OAuth2AuthenticationCodecTest {
+
+    private static final int ITERATIONS = 100_000;
+
+    @Test
+    public void decodeWhenEncodedThenSameAuthentication() {
+        OAuth2Authentication authentication = createAuthentication();
+        OAuth2Authentication decoded = OAuth2AuthenticationCodec.decode(OAuth2AuthenticationCodec.encode(authentication));
+
+        assertThat(decoded.getOAuth2Request()).isEqualTo(authentication.getOAuth2Request());
+        assertThat(decoded.getName()).isEqualTo(authentication.getName());
+        assertThat(decoded.getAuthorities()).containsExactlyInAnyOrderElementsOf(authentication.getAuthorities());
+        assertThat(((SecurityUser) decoded.getPrincipal()).getUserId()).isEqualTo("1");
+    }
+
+    @Test
+    public void decodeWhenAllowedExtensionThenDeserialized() {
+        OAuth2Authentication decoded = OAuth2AuthenticationCodec.decode(OAuth2AuthenticationCodec.encode(
+                createAuthentication(Collections.singletonMap("ids", new ArrayList<>(Arrays.asList(1L, 2L))))));
+        assertThat(decoded.getOAuth2Request().getExtensions().get("ids")).isEqualTo(Arrays.asList(1L, 2L));
+    }
+
+    @Test
+    public void decodeWhenDisallowedExtensionThenRejected() {
+        byte[] encoded = OAuth2AuthenticationCodec.encode(createAuthentication(Collections.singletonMap("file", new File("passport"))));
+        assertThatThrownBy(() -> OAuth2AuthenticationCodec.decode(encoded))
+                .isInstanceOf(UncheckedIOException.class)
+                .hasCauseInstanceOf(InvalidClassException.class);
+    }
+
+    @Test
+    public void encodeWhenComparedWithNestedDocumentThenSmaller() {
+        OAuth2Authentication authentication = createAuthentication();
+        int documentSize = bsonSize(new Document("authentication", toDocument(authentication)));
+        int binarySize = bsonSize(new Document("authentication", new Binary(OAuth2AuthenticationCodec.encode(authentication))));
+        log.info("Nested document size: {} bytes, compact binary size: {} bytes", documentSize, binarySize);
+        assertThat(binarySize).isLessThan(documentSize);
+    }
+
+    @Test
+    public void benchmarkDecodeTime() {
+        // Opt in with -Dbenchmark=true, because the decoding time depends on the machine
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        OAuth2Authentication authentication = createAuthentication();
+        // Both start from the BSON bytes read from the database
+        RawBsonDocument document = toRawBsonDocument(new Document("authentication", toDocument(authentication)));
+        RawBsonDocument binary = toRawBsonDocument(new Document("authentication",
+                new Binary(OAuth2AuthenticationCodec.encode(authentication))));
+
+        OAuth2AuthenticationReadConverter documentConverter = new OAuth2AuthenticationReadConverter();
+        long documentNanos = time(() -> documentConverter.convert(parse(document).get("authentication", Document.class)));
+        long binaryNanos = time(() -> OAuth2AuthenticationCodec.decode(
+                parse(binary).get("authentication", Binary.class).getData()));
+        log.info("Nested document decoding: {} ns/op, compact binary decoding: {} ns/op",
+                documentNanos / ITERATIONS, binaryNanos / ITERATIONS);
+        assertThat(binaryNanos).isLessThan(documentNanos);
+    }
+
+    private long time(Runnable runnable) {
+        // Warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private Document toDocument(OAuth2Authentication authentication) {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.setTypeMapper(new DefaultMongoTypeMapper(null));
+        converter.afterPropertiesSet();
+        Document document = new Document();
+        converter.write(authentication, document);
+        return document;
+    }
+
+    private int bsonSize(Document document) {
+        return toRawBsonDocument(document).getByteBuffer().remaining();
+    }
+
+    private RawBsonDocument toRawBsonDocument(Document document) {
+        return new RawBsonDocument(document, new DocumentCodec());
+    }
+
+    private Document parse(RawBsonDocument document) {
+        return document.decode(new DocumentCodec());
+    }
+
+    private OAuth2Authentication createAuthentication() {
+        return createAuthentication(Collections.emptyMap());
+    }
+
+    private OAuth2Authentication createAuthentication(Map<String, Serializable> extensions) {
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList(Authority.USER, Authority.ADMIN, Authority.DEVELOPER);
+        Map<String, String> requestParameters = new HashMap<>();
+        requestParameters.put("grant_type", "password");
+        requestParameters.put("username", "louis");
+        requestParameters.put("client_id", MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID);
+        OAuth2Request request = new OAuth2Request(requestParameters, MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID,
+                authorities, true, new HashSet<>(Arrays.asList("read", "write")), Collections.emptySet(), null,
+                Collections.emptySet(), extensions);
+        SecurityUser principal = new SecurityUser("1", "louis", "", authorities);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(principal, null, authorities));
+    }
+}
@@ -0,0 +1,74 @@
+package org.infinity.passport.oauth2;
+
+import org.bson.Document;
+import org.infinity.passport.domain.MongoOAuth2AccessToken;
+import org.infinity.passport.domain.MongoOAuth2Approval;
+import org.infinity.passport.domain.MongoOAuth2AuthorizationCode;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Explains the queries of the OAuth2 repositories to verify that none of them scans the whole collection.
+ */
+@SpringBootTest
+@RunWith(SpringRunner.class)
+public class OAuth2IndexTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    public void accessTokenQueriesWhenExplainedThenNoCollectionScan() {
+        assertNoCollectionScan(MongoOAuth2AccessToken.class, new Document("refreshToken", "refresh-token"));
+        assertNoCollectionScan(MongoOAuth2AccessToken.class, new Document("authenticationId", "authentication-id"));
+        assertNoCollectionScan(MongoOAuth2AccessToken.class, new Document("clientId", "client-id"));
+        assertNoCollectionScan(MongoOAuth2AccessToken.class, new Document("clientId", "client-id").append("userName", "user"));
+        assertNoCollectionScan(MongoOAuth2AccessToken.class, new Document("lastAccessedTime", new Document("$lt", new Date())));
+    }
+
+    @Test
+    public void approvalQueriesWhenExplainedThenNoCollectionScan() {
+        assertNoCollectionScan(MongoOAuth2Approval.class, new Document("userId", "user").append("clientId", "client-id"));
+        assertNoCollectionScan(MongoOAuth2Approval.class, new Document("userId", "user").append("clientId", "client-id")
+                .append("scope", "read"));
+        assertNoCollectionScan(MongoOAuth2Approval.class, new Document("expiresAt", new Document("$lt", new Date())));
+    }
+
+    @Test
+    public void authorizationCodeQueriesWhenExplainedThenNoCollectionScan() {
+        assertNoCollectionScan(MongoOAuth2AuthorizationCode.class, new Document("_id", "code"));
+    }
+
+    private void assertNoCollectionScan(Class<?> entityClass, Document filter) {
+        Document explain = mongoTemplate.getDb().runCommand(new Document("explain",
+                new Document("find", mongoTemplate.getCollectionName(entityClass)).append("filter", filter)));
+        Document winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+        assertThat(getStages(winningPlan)).as("Stages of %s on %s", filter.toJson(), entityClass.getSimpleName())
+                .doesNotContain("COLLSCAN");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> getStages(Document plan) {
+        List<String> stages = new ArrayList<>();
+        stages.add(plan.getString("stage"));
+        if (plan.get("inputStage") != null) {
+            stages.addAll(getStages(plan.get("inputStage", Document.class)));
+        }
+        if (plan.get("inputStages") != null) {
+            for (Document inputStage : (List<Document>) plan.get("inputStages")) {
+                stages.addAll(getStages(inputStage));
+            }
+        }
+        return stages;
+    }
+}
@@ -0,0 +1,143 @@
+package org.infinity.passport.oauth2;
+
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.RevocableJwtTokenStore;
+import org.infinity.passport.config.oauth2.SecurityUser;
+import org.infinity.passport.config.oauth2.SecurityUserAuthenticationConverter;
+import org.infinity.passport.config.oauth2.TokenRevocationBroadcaster;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.infinity.passport.domain.RevokedJwtToken;
+import org.infinity.passport.event.AccessTokenRevokedEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies the signed token store and its revocations.
+ */
+public class RevocableJwtTokenStoreTest {
+
+    private final MongoTemplate              mongoTemplate              = mock(MongoTemplate.class);
+    private final TokenRevocationBroadcaster tokenRevocationBroadcaster = mock(TokenRevocationBroadcaster.class);
+
+    private JwtAccessTokenConverter jwtAccessTokenConverter;
+    private RevocableJwtTokenStore  tokenStore;
+
+    @Before
+    public void setup() throws Exception {
+        DefaultAccessTokenConverter accessTokenConverter = new DefaultAccessTokenConverter();
+        accessTokenConverter.setUserTokenConverter(new SecurityUserAuthenticationConverter());
+        jwtAccessTokenConverter = new JwtAccessTokenConverter();
+        jwtAccessTokenConverter.setAccessTokenConverter(accessTokenConverter);
+        jwtAccessTokenConverter.setSigningKey("signing-key");
+        jwtAccessTokenConverter.afterPropertiesSet();
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        tokenStore = new RevocableJwtTokenStore(jwtAccessTokenConverter, mongoTemplate, tokenRevocationBroadcaster,
+                applicationProperties);
+    }
+
+    @Test
+    public void readAuthenticationsWhenExpiredThenAbsent() {
+        OAuth2AccessToken expired = createAccessToken("expired", -1_000L);
+        OAuth2AccessToken live = createAccessToken("live", 3600_000L);
+
+        Map<String, OAuth2Authentication> authentications = tokenStore
+                .readAuthentications(Arrays.asList(expired.getValue(), live.getValue()));
+
+        assertThat(authentications).containsOnlyKeys(live.getValue());
+        assertThat(authentications.get(live.getValue()).getName()).isEqualTo("live");
+        assertThat(((SecurityUser) authentications.get(live.getValue()).getPrincipal()).getUserId()).isEqualTo("live-id");
+    }
+
+    @Test
+    public void revokeTokenWhenIssuedThenRejectedAfterRestart() {
+        DefaultTokenServices tokenServices = createTokenServices(tokenStore);
+        OAuth2AccessToken token = tokenServices.createAccessToken(createAuthentication("user"));
+        assertThat(tokenServices.loadAuthentication(token.getValue()).getName()).isEqualTo("user");
+
+        assertThat(tokenServices.revokeToken(token.getValue())).isTrue();
+
+        assertThatThrownBy(() -> tokenServices.loadAuthentication(token.getValue())).isInstanceOf(InvalidTokenException.class);
+        ArgumentCaptor<RevokedJwtToken> revocation = ArgumentCaptor.forClass(RevokedJwtToken.class);
+        verify(mongoTemplate).save(revocation.capture());
+        // The revocation is kept until the token expires, the expiration claim has a precision of a second
+        assertThat(revocation.getValue().getExpiresAt().getEpochSecond()).isEqualTo(token.getExpiration().getTime() / 1000);
+        assertThat(revocation.getValue().getId()).isNotEqualTo(token.getValue());
+        verify(tokenRevocationBroadcaster).revoke(token.getValue());
+
+        // Restart
+        when(mongoTemplate.find(any(Query.class), eq(RevokedJwtToken.class))).thenReturn(Collections.singletonList(revocation.getValue()));
+        RevocableJwtTokenStore restartedTokenStore = new RevocableJwtTokenStore(jwtAccessTokenConverter, mongoTemplate,
+                tokenRevocationBroadcaster, new ApplicationProperties());
+        restartedTokenStore.loadRevokedTokens();
+        assertThatThrownBy(() -> createTokenServices(restartedTokenStore).loadAuthentication(token.getValue()))
+                .isInstanceOf(InvalidTokenException.class);
+    }
+
+    @Test
+    public void accessTokenRevokedEventWhenRevokedByOtherNodeThenRejected() {
+        OAuth2AccessToken token = createAccessToken("user", 3600_000L);
+        when(mongoTemplate.findById(anyString(), eq(RevokedJwtToken.class)))
+                .thenAnswer(invocation -> new RevokedJwtToken(invocation.getArgument(0), token.getExpiration().toInstant()));
+
+        tokenStore.accessTokenRevokedEvent(new AccessTokenRevokedEvent(this, token.getValue()));
+
+        assertThat(tokenStore.readAccessToken(token.getValue())).isNull();
+        assertThat(tokenStore.readAuthentications(Collections.singleton(token.getValue()))).isEmpty();
+    }
+
+    @Test
+    public void purgeExpiredWhenRevokedTokenExpiredThenForgotten() {
+        OAuth2AccessToken expired = createAccessToken("expired", -1_000L);
+        tokenStore.removeAccessToken(expired);
+
+        tokenStore.purgeExpired();
+
+        // The expired token is read again, but it is rejected for its expiration
+        assertThat(tokenStore.readAccessToken(expired.getValue()).isExpired()).isTrue();
+    }
+
+    private DefaultTokenServices createTokenServices(RevocableJwtTokenStore tokenStore) {
+        DefaultTokenServices tokenServices = new DefaultTokenServices();
+        tokenServices.setTokenStore(tokenStore);
+        tokenServices.setTokenEnhancer(jwtAccessTokenConverter);
+        return tokenServices;
+    }
+
+    private OAuth2AccessToken createAccessToken(String userName, long validityMillis) {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+        token.setExpiration(new Date(System.currentTimeMillis() + validityMillis));
+        token.setScope(Collections.singleton("read"));
+        return jwtAccessTokenConverter.enhance(token, createAuthentication(userName));
+    }
+
+    private OAuth2Authentication createAuthentication(String userName) {
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList(Authority.USER);
+        OAuth2Request request = new OAuth2Request(Collections.singletonMap("grant_type", "password"),
+                MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID, authorities, true, Collections.singleton("read"),
+                Collections.emptySet(), null, Collections.emptySet(), Collections.emptyMap());
+        SecurityUser principal = new SecurityUser(userName + "-id", userName, "", authorities);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(principal, null, authorities));
+    }
+}
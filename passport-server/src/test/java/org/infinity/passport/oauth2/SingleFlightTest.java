@@ -0,0 +1,80 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.infinity.passport.config.oauth2.SingleFlight;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that concurrent loads of the same key are collapsed into one.
+ */
+public class SingleFlightTest {
+
+    private static final int CALLERS = 16;
+
+    private final MeterRegistry                meterRegistry = new SimpleMeterRegistry();
+    private final SingleFlight<String, String> singleFlight  = new SingleFlight<>("test", meterRegistry);
+
+    @Test
+    public void executeWhenConcurrentCallsOfSameKeyThenLoadedOnce() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                futures.add(executor.submit(() -> singleFlight.execute("client", key -> {
+                    loads.incrementAndGet();
+                    await(release);
+                    return key.toUpperCase();
+                })));
+            }
+            // Wait until all the callers have joined the load in flight
+            while (collapsedCount() + loads.get() < CALLERS) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<String> future : futures) {
+                assertThat(future.get()).isEqualTo("CLIENT");
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(collapsedCount()).isEqualTo(CALLERS - 1);
+    }
+
+    @Test
+    public void executeWhenLoadCompletedThenLoadedAgain() {
+        AtomicInteger loads = new AtomicInteger();
+        singleFlight.execute("client", key -> String.valueOf(loads.incrementAndGet()));
+        assertThat(singleFlight.execute("client", key -> String.valueOf(loads.incrementAndGet()))).isEqualTo("2");
+    }
+
+    @Test
+    public void executeWhenLoaderFailsThenExceptionRethrown() {
+        assertThatThrownBy(() -> singleFlight.execute("client", key -> {
+            throw new IllegalArgumentException("No client found with id: " + key);
+        })).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private double collapsedCount() {
+        return meterRegistry.get(SingleFlight.METRIC_NAME + ".calls").tag("result", "collapsed").counter().count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
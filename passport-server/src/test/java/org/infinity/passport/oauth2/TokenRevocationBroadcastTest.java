@@ -0,0 +1,91 @@
+package org.infinity.passport.oauth2;
+
+import org.infinity.passport.PassportServerLauncher;
+import org.infinity.passport.config.oauth2.SecurityUser;
+import org.infinity.passport.domain.Authority;
+import org.infinity.passport.domain.MongoOAuth2ClientDetails;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Starts two application contexts sharing one embedded MongoDB to verify that a revocation on one node
+ * evicts the access token from the near cache of the other node.
+ */
+public class TokenRevocationBroadcastTest {
+
+    private static ConfigurableApplicationContext node1;
+    private static ConfigurableApplicationContext node2;
+
+    @BeforeClass
+    public static void startNodes() {
+        node1 = new SpringApplicationBuilder(PassportServerLauncher.class)
+                .properties("server.port=0")
+                .run();
+        node2 = new SpringApplicationBuilder(PassportServerLauncher.class)
+                .properties("server.port=0",
+                        "spring.data.mongodb.port=" + node1.getEnvironment().getProperty("local.mongo.port"),
+                        "spring.autoconfigure.exclude=" + EmbeddedMongoAutoConfiguration.class.getName(),
+                        // The database has been initialized by node1, and its runAlways change sets must not run twice
+                        "mongock.enabled=false")
+                .run();
+    }
+
+    @AfterClass
+    public static void stopNodes() {
+        if (node2 != null) {
+            node2.close();
+        }
+        if (node1 != null) {
+            node1.close();
+        }
+    }
+
+    @Test
+    public void readAccessTokenOnOtherNodeWhenRevokedThenNull() throws InterruptedException {
+        TokenStore tokenStore1 = node1.getBean(TokenStore.class);
+        TokenStore tokenStore2 = node2.getBean(TokenStore.class);
+
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+        tokenStore1.storeAccessToken(accessToken, createAuthentication());
+
+        // Populate the near cache of node2
+        assertThat(tokenStore2.readAccessToken(accessToken.getValue())).isNotNull();
+
+        tokenStore1.removeAccessToken(accessToken);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (tokenStore2.readAccessToken(accessToken.getValue()) != null && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(tokenStore2.readAccessToken(accessToken.getValue())).isNull();
+    }
+
+    private OAuth2Authentication createAuthentication() {
+        List<GrantedAuthority> authorities = Collections.singletonList(new SimpleGrantedAuthority(Authority.USER));
+        OAuth2Request request = new OAuth2Request(Collections.emptyMap(), MongoOAuth2ClientDetails.INTERNAL_CLIENT_ID,
+                authorities, true, Collections.singleton("read"), Collections.emptySet(), null,
+                Collections.emptySet(), Collections.emptyMap());
+        SecurityUser principal = new SecurityUser("1", "user", "", authorities);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(principal, null, authorities));
+    }
+}
@@ -0,0 +1,71 @@
+package org.infinity.passport.oauth2;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.config.oauth2.SecurityUser;
+import org.infinity.passport.config.oauth2.UserDetailsCache;
+import org.infinity.passport.domain.Authority;
+import org.junit.Test;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies the user details cache shared by all the logins of a user.
+ */
+public class UserDetailsCacheTest {
+
+    private final UserDetailsCache cache = new UserDetailsCache(new ApplicationProperties(), new SimpleMeterRegistry());
+    private final AtomicInteger    loads = new AtomicInteger();
+
+    @Test
+    public void getWhenCachedThenNotLoadedAgain() {
+        cache.get("User", this::load);
+        assertThat(cache.get("user", this::load).getUsername()).isEqualTo("user");
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void getWhenEvictedThenAllLoginsLoadedAgain() {
+        cache.get("user", this::load);
+        cache.get("user@example.com", this::load);
+
+        cache.evict("1");
+
+        cache.get("user", this::load);
+        cache.get("user@example.com", this::load);
+        assertThat(loads.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void getWhenEvictedDuringLoadThenNotCached() {
+        // The user is changed and evicted while the previous version is being loaded
+        cache.get("user", login -> {
+            SecurityUser user = load(login);
+            cache.evict("1");
+            return user;
+        });
+
+        cache.get("user", this::load);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void getWhenNotFoundThenNotCached() {
+        assertThatThrownBy(() -> cache.get("unknown", login -> {
+            loads.incrementAndGet();
+            throw new UsernameNotFoundException("User " + login + " was not found in the database");
+        })).isInstanceOf(UsernameNotFoundException.class);
+        cache.get("unknown", this::load);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    private SecurityUser load(String login) {
+        loads.incrementAndGet();
+        return new SecurityUser("1", "user", "password", AuthorityUtils.createAuthorityList(Authority.USER));
+    }
+}
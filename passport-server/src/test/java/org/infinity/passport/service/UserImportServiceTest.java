@@ -0,0 +1,200 @@
+package org.infinity.passport.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.infinity.passport.component.MessageCreator;
+import org.infinity.passport.config.ApplicationProperties;
+import org.infinity.passport.domain.User;
+import org.infinity.passport.domain.UserAuthority;
+import org.infinity.passport.domain.UserLoginKey;
+import org.infinity.passport.dto.UserImportErrorDTO;
+import org.infinity.passport.dto.UserImportSummaryDTO;
+import org.infinity.passport.exception.PasswordHashingRejectedException;
+import org.infinity.passport.service.impl.UserImportServiceImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import javax.validation.Validation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies the batched user import against a mocked database.
+ */
+public class UserImportServiceTest {
+
+    private static final String CSV_HEADER = "userName,firstName,lastName,email,mobileNo,password,authorities,remarks";
+
+    private final MongoTemplate   mongoTemplate       = mock(MongoTemplate.class);
+    private final BulkOperations  loginKeyOperations  = mock(BulkOperations.class);
+    private final BulkOperations  userOperations      = mock(BulkOperations.class);
+    private final BulkOperations  authorityOperations = mock(BulkOperations.class);
+    private final PasswordEncoder passwordEncoder     = mock(PasswordEncoder.class);
+    private final MessageCreator  messageCreator      = mock(MessageCreator.class);
+
+    private final List<UserImportErrorDTO> errors = new ArrayList<>();
+
+    private UserImportServiceImpl userImportService;
+
+    @Before
+    public void setup() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserLoginKey.class)).thenReturn(loginKeyOperations);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class)).thenReturn(userOperations);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserAuthority.class)).thenReturn(authorityOperations);
+        when(passwordEncoder.encode(anyString())).thenAnswer(invocation -> "hash-" + invocation.getArgument(0));
+        when(messageCreator.getMessage(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getUserImport().setBatchSize(10);
+        applicationProperties.getUserImport().setParallelism(1);
+        userImportService = new UserImportServiceImpl(mongoTemplate, passwordEncoder,
+                Validation.buildDefaultValidatorFactory().getValidator(), new ObjectMapper(), messageCreator,
+                applicationProperties);
+    }
+
+    @After
+    public void destroy() {
+        userImportService.destroy();
+    }
+
+    @Test
+    public void importUsersWhenNdjsonThenInserted() throws IOException {
+        UserImportSummaryDTO summary = importNdjson(ndjson("user1", "13800000001", "password1"),
+                ndjson("user2", "13800000002", "password2"));
+
+        assertThat(errors).isEmpty();
+        assertThat(summary.getTotal()).isEqualTo(2);
+        assertThat(summary.getImported()).isEqualTo(2);
+        List<User> users = insertedUsers();
+        assertThat(users).extracting(User::getUserName).containsExactly("user1", "user2");
+        assertThat(users).extracting(User::getPasswordHash).containsExactly("hash-password1", "hash-password2");
+        assertThat(users).allMatch(user -> !user.getActivated() && user.getActivationKey() != null);
+        // User name, email and mobile number of each user
+        verify(loginKeyOperations, times(6)).insert(any(UserLoginKey.class));
+        verify(mongoTemplate, never()).remove(any(Query.class), any(Class.class));
+    }
+
+    @Test
+    public void importUsersWhenCsvWithQuotedValuesThenParsed() throws IOException {
+        UserImportSummaryDTO summary = importCsv(CSV_HEADER,
+                "user1,F,L,user1@example.com,13800000001,password1,ROLE_USER|ROLE_ADMIN,\"Hello, \"\"world\"\"\"");
+
+        assertThat(errors).isEmpty();
+        assertThat(summary.getImported()).isEqualTo(1);
+        User user = insertedUsers().get(0);
+        assertThat(user.getRemarks()).isEqualTo("Hello, \"world\"");
+        assertThat(user.getAuthorities()).containsExactlyInAnyOrder("ROLE_USER", "ROLE_ADMIN");
+        verify(authorityOperations, times(2)).insert(any(UserAuthority.class));
+    }
+
+    @Test
+    public void importUsersWhenCsvWithUnterminatedQuoteThenRejected() throws IOException {
+        UserImportSummaryDTO summary = importCsv(CSV_HEADER,
+                "user1,F,L,user1@example.com,13800000001,password1,ROLE_USER,\"Hello");
+
+        assertThat(summary.getFailed()).isEqualTo(1);
+        assertThat(errors).extracting(UserImportErrorDTO::getLine).containsExactly(2L);
+        assertThat(errors.get(0).getMessage()).contains("Unterminated quoted value");
+    }
+
+    @Test
+    public void importUsersWhenDuplicatedInBatchThenLaterRowRejected() throws IOException {
+        // The email differs in case only
+        UserImportSummaryDTO summary = importNdjson(ndjson("user1", "13800000001", "password1"),
+                ndjson("user2", "13800000002", "password2").replace("user2@example.com", "USER1@example.com"));
+
+        assertThat(summary.getImported()).isEqualTo(1);
+        assertThat(errors).extracting(UserImportErrorDTO::getLine).containsExactly(2L);
+        assertThat(insertedUsers()).extracting(User::getMobileNo).containsExactly("13800000001");
+    }
+
+    @Test
+    public void importUsersWhenExistingLoginThenRejected() throws IOException {
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), any()))
+                .thenReturn(Collections.singletonList(new Document("_id", "13800000002")));
+
+        UserImportSummaryDTO summary = importNdjson(ndjson("user1", "13800000001", "password1"),
+                ndjson("user2", "13800000002", "password2"));
+
+        assertThat(summary.getImported()).isEqualTo(1);
+        assertThat(errors).extracting(UserImportErrorDTO::getUserName).containsExactly("user2");
+        // The rejected row is not hashed
+        verify(passwordEncoder, never()).encode("password2");
+    }
+
+    @Test
+    public void importUsersWhenHashRejectedThenReported() throws IOException {
+        when(passwordEncoder.encode("password2")).thenThrow(new PasswordHashingRejectedException("Busy"));
+
+        UserImportSummaryDTO summary = importNdjson(ndjson("user1", "13800000001", "password1"),
+                ndjson("user2", "13800000002", "password2"));
+
+        assertThat(summary.getImported()).isEqualTo(1);
+        assertThat(errors).extracting(UserImportErrorDTO::getUserName).containsExactly("user2");
+        assertThat(insertedUsers()).extracting(User::getUserName).containsExactly("user1");
+    }
+
+    @Test
+    public void importUsersWhenUserInsertPartiallyFailedThenRolledBack() throws IOException {
+        BulkWriteError error = new BulkWriteError(11000, "Duplicated", new BsonDocument(), 1);
+        when(userOperations.execute()).thenThrow(new BulkOperationException("Bulk insert failed",
+                new MongoBulkWriteException(BulkWriteResult.unacknowledged(), Collections.singletonList(error), null,
+                        new ServerAddress())));
+
+        UserImportSummaryDTO summary = importNdjson(ndjson("user1", "13800000001", "password1"),
+                ndjson("user2", "13800000002", "password2"));
+
+        assertThat(summary.getImported()).isEqualTo(1);
+        assertThat(summary.getFailed()).isEqualTo(1);
+        assertThat(errors).extracting(UserImportErrorDTO::getUserName).containsExactly("user2");
+        String failedUserId = insertedUsers().get(1).getId();
+        ArgumentCaptor<Query> loginKeyQuery = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(loginKeyQuery.capture(), eq(UserLoginKey.class));
+        assertThat(loginKeyQuery.getValue().getQueryObject().toJson()).contains(failedUserId)
+                .doesNotContain(insertedUsers().get(0).getId());
+        verify(mongoTemplate).remove(any(Query.class), eq(UserAuthority.class));
+        verify(mongoTemplate).remove(any(Query.class), eq(User.class));
+    }
+
+    private UserImportSummaryDTO importNdjson(String... lines) throws IOException {
+        return userImportService.importUsers(reader(lines), UserImportService.Format.NDJSON, false, errors::add);
+    }
+
+    private UserImportSummaryDTO importCsv(String... lines) throws IOException {
+        return userImportService.importUsers(reader(lines), UserImportService.Format.CSV, false, errors::add);
+    }
+
+    private BufferedReader reader(String... lines) {
+        return new BufferedReader(new StringReader(String.join("\n", lines)));
+    }
+
+    private String ndjson(String userName, String mobileNo, String password) {
+        return "{\"userName\":\"" + userName + "\",\"firstName\":\"F\",\"lastName\":\"L\",\"email\":\"" + userName
+                + "@example.com\",\"mobileNo\":\"" + mobileNo + "\",\"password\":\"" + password + "\"}";
+    }
+
+    private List<User> insertedUsers() {
+        ArgumentCaptor<User> users = ArgumentCaptor.forClass(User.class);
+        verify(userOperations, atLeast(0)).insert(users.capture());
+        return users.getAllValues();
+    }
+}
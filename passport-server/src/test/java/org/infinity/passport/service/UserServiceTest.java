@@ -0,0 +1,157 @@
+package org.infinity.passport.service;
+
+import com.google.common.collect.ImmutableMap;
+import org.bson.types.ObjectId;
+import org.infinity.passport.component.MessageCreator;
+import org.infinity.passport.config.oauth2.UserDetailsCache;
+import org.infinity.passport.domain.User;
+import org.infinity.passport.domain.UserLoginKey;
+import org.infinity.passport.exception.DuplicationException;
+import org.infinity.passport.repository.UserAuthorityRepository;
+import org.infinity.passport.repository.UserLoginKeyRepository;
+import org.infinity.passport.repository.UserRepository;
+import org.infinity.passport.service.impl.UserServiceImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that the login keys claim the user name, email and mobile number of a user case-insensitively, against
+ * in-memory repositories which reject a duplicated primary key like MongoDB.
+ */
+public class UserServiceTest {
+
+    private final UserRepository         userRepository         = mock(UserRepository.class);
+    private final UserLoginKeyRepository userLoginKeyRepository = mock(UserLoginKeyRepository.class);
+    private final Map<String, User>      users                  = new HashMap<>();
+    private final Map<String, String>    loginKeys              = new HashMap<>();
+
+    private UserService userService;
+
+    @Before
+    public void setup() {
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> {
+            User user = invocation.getArgument(0);
+            if (user.getId() == null) {
+                user.setId(ObjectId.get().toHexString());
+            }
+            users.put(user.getId(), user);
+            return user;
+        });
+        when(userRepository.findById(anyString())).thenAnswer(invocation -> Optional.ofNullable(users.get(invocation.<String>getArgument(0))));
+        doAnswer(invocation -> users.remove(invocation.<String>getArgument(0))).when(userRepository).deleteById(anyString());
+        when(userRepository.findOneByUserName(anyString())).thenAnswer(invocation -> findUser(User::getUserName, invocation.getArgument(0)));
+        when(userRepository.findOneByEmail(anyString())).thenAnswer(invocation -> findUser(User::getEmail, invocation.getArgument(0)));
+        when(userRepository.findOneByMobileNo(anyString())).thenAnswer(invocation -> findUser(User::getMobileNo, invocation.getArgument(0)));
+
+        when(userLoginKeyRepository.insert(any(UserLoginKey.class))).thenAnswer(invocation -> {
+            UserLoginKey loginKey = invocation.getArgument(0);
+            if (loginKeys.putIfAbsent(loginKey.getId(), loginKey.getUserId()) != null) {
+                throw new DuplicateKeyException("Duplicated login key " + loginKey.getId());
+            }
+            return loginKey;
+        });
+        when(userLoginKeyRepository.findById(anyString())).thenAnswer(invocation -> Optional.ofNullable(loginKeys.get(invocation.<String>getArgument(0)))
+                .map(userId -> new UserLoginKey(invocation.getArgument(0), userId)));
+        when(userLoginKeyRepository.findByUserId(anyString())).thenAnswer(invocation -> loginKeys.entrySet().stream()
+                .filter(entry -> entry.getValue().equals(invocation.getArgument(0)))
+                .map(entry -> new UserLoginKey(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList()));
+        doAnswer(invocation -> loginKeys.remove(invocation.<UserLoginKey>getArgument(0).getId()))
+                .when(userLoginKeyRepository).delete(any(UserLoginKey.class));
+        doAnswer(invocation -> {
+            invocation.<Iterable<UserLoginKey>>getArgument(0).forEach(loginKey -> loginKeys.remove(loginKey.getId()));
+            return null;
+        }).when(userLoginKeyRepository).deleteAll(anyIterable());
+        doAnswer(invocation -> loginKeys.values().removeIf(userId -> userId.equals(invocation.getArgument(0))))
+                .when(userLoginKeyRepository).deleteByUserId(anyString());
+
+        PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+        when(passwordEncoder.encode(anyString())).thenReturn("hash");
+        userService = new UserServiceImpl(userRepository, mock(UserAuthorityRepository.class), userLoginKeyRepository,
+                passwordEncoder, mock(MessageCreator.class), mock(MongoTemplate.class), mock(UserDetailsCache.class));
+    }
+
+    @Test
+    public void insertWhenLoginDiffersInCaseOnlyThenDuplicated() {
+        userService.insert(createUser("louis", "Louis@Example.com", "13800000001"), "password");
+
+        assertThatThrownBy(() -> userService.insert(createUser("LOUIS", "other@example.com", "13800000002"), "password"))
+                .isInstanceOf(DuplicationException.class)
+                .hasFieldOrPropertyWithValue("fieldMap", ImmutableMap.of("userName", "LOUIS"));
+        assertThatThrownBy(() -> userService.insert(createUser("other", "LOUIS@EXAMPLE.COM", "13800000002"), "password"))
+                .isInstanceOf(DuplicationException.class)
+                .hasFieldOrPropertyWithValue("fieldMap", ImmutableMap.of("email", "LOUIS@EXAMPLE.COM"));
+        assertThatThrownBy(() -> userService.insert(createUser("other", "other@example.com", "13800000001"), "password"))
+                .isInstanceOf(DuplicationException.class)
+                .hasFieldOrPropertyWithValue("fieldMap", ImmutableMap.of("mobileNo", "13800000001"));
+        assertThat(users).hasSize(1);
+        assertThat(loginKeys).containsOnlyKeys("louis", "louis@example.com", "13800000001");
+    }
+
+    @Test
+    public void insertWhenLoginClaimedConcurrentlyThenRolledBack() {
+        // Claimed by a user who is being inserted concurrently, so the existence checks do not see it
+        loginKeys.put("13800000001", "another");
+
+        assertThatThrownBy(() -> userService.insert(createUser("louis", "louis@example.com", "13800000001"), "password"))
+                .isInstanceOf(DuplicationException.class)
+                .hasFieldOrPropertyWithValue("fieldMap", ImmutableMap.of("login", "13800000001"));
+        assertThat(users).isEmpty();
+        assertThat(loginKeys).containsOnly(entry("13800000001", "another"));
+    }
+
+    @Test
+    public void updateWhenNewLoginClaimedConcurrentlyThenPartialKeysRemoved() {
+        User user = userService.insert(createUser("louis", "louis@example.com", "13800000001"), "password");
+        loginKeys.put("13800000009", "another");
+
+        User changed = createUser("louis", "new@example.com", "13800000009");
+        changed.setId(user.getId());
+        assertThatThrownBy(() -> userService.update(changed)).isInstanceOf(DuplicationException.class);
+
+        // The new email key inserted before the rejected mobile number is removed, the old keys are kept
+        assertThat(loginKeys).containsOnly(entry("louis", user.getId()), entry("louis@example.com", user.getId()),
+                entry("13800000001", user.getId()), entry("13800000009", "another"));
+        assertThat(userService.findOneByLogin("new@example.com")).isEmpty();
+    }
+
+    @Test
+    public void findOneByLoginWhenAnyKeyInAnyCaseThenFound() {
+        User user = userService.insert(createUser("louis", "Louis@Example.com", "13800000001"), "password");
+
+        assertThat(userService.findOneByLogin("LOUIS")).hasValueSatisfying(found -> assertThat(found.getId()).isEqualTo(user.getId()));
+        assertThat(userService.findOneByLogin("louis@EXAMPLE.com")).hasValueSatisfying(found -> assertThat(found.getId()).isEqualTo(user.getId()));
+        assertThat(userService.findOneByLogin("13800000001")).hasValueSatisfying(found -> assertThat(found.getId()).isEqualTo(user.getId()));
+        assertThat(userService.findOneByLogin("unknown")).isEmpty();
+    }
+
+    private Optional<User> findUser(Function<User, String> field, String value) {
+        return users.values().stream().filter(user -> value.equals(field.apply(user))).findFirst();
+    }
+
+    private User createUser(String userName, String email, String mobileNo) {
+        User user = new User();
+        user.setUserName(userName);
+        user.setFirstName("F");
+        user.setLastName("L");
+        user.setEmail(email);
+        user.setMobileNo(mobileNo);
+        return user;
+    }
+
+    private static Map.Entry<String, String> entry(String key, String value) {
+        return new AbstractMap.SimpleEntry<>(key, value);
+    }
+}